@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.bench;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pm.data.ProductManager;
+
+/**
+ * A populated catalog shared by all the threads of a benchmark.
+ *
+ * @author Oscar
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+
+    @Param({ "1000", "100000" })
+    public int catalogSize;
+
+    @Param({ "0", "10" })
+    public int reviewsPerProduct;
+
+    ProductManager pm;
+    int[] ids;
+    int[] sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Catalogs.clearDataFolder();
+        pm = ProductManager.getInstance();
+        ids = Catalogs.populate(pm, catalogSize, reviewsPerProduct);
+        sequence = Catalogs.sequence(catalogSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.flushReports();
+        Catalogs.clearDataFolder();
+    }
+}
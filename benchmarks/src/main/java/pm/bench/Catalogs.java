@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.stream.Stream;
+import pm.data.ProductManager;
+import pm.data.Rating;
+import pm.data.ReviewEntry;
+
+/**
+ * Builds the catalogs the benchmarks run against. Every trial starts from an
+ * empty data folder, so results do not depend on earlier runs. The folder
+ * is a temporary one, never the data folder of the shop, and is set before
+ * the catalog is first used since the catalog reads it once.
+ *
+ * @author Oscar
+ */
+final class Catalogs {
+
+    static final int SEQUENCE = 1 << 12;
+    private static final String[] COMMENTS = { "Nice", "Just add some lemon", "Not my cup of tea",
+        "Perfect", "Too expensive", "Fine tea", "Good", "Rather weak" };
+
+    private static final Path DATA_FOLDER = createDataFolder();
+
+    private Catalogs() {
+    }
+
+    private static Path createDataFolder() {
+        try {
+            Path folder = Files.createTempDirectory("pm-bench");
+            System.setProperty("pm.data.folder", folder.toString());
+            return folder;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    static Path dataFolder() {
+        return DATA_FOLDER;
+    }
+
+    static Path snapshotFile() {
+        return dataFolder().resolve(ResourceBundle.getBundle("pm.data.config").getString("snapshot.file"));
+    }
+
+    static void clearDataFolder() throws IOException {
+        Path folder = dataFolder();
+        if (Files.notExists(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(folder)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Creates {@code size} products, half food and half drinks, with
+     * {@code reviews} reviews each, and returns their ids.
+     */
+    static int[] populate(ProductManager pm, int size, int reviews) {
+        Random random = new Random(42);
+        int[] ids = new int[size];
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < size; i++) {
+            BigDecimal price = BigDecimal.valueOf(50 + random.nextInt(5000), 2);
+            Rating rating = Rating.values()[random.nextInt(Rating.values().length)];
+            ids[i] = (i % 2 == 0
+                    ? pm.createProductDrink("Drink", name(i), price, rating)
+                    : pm.createProductFood("Food", name(i), price, rating, today.plusDays(i % 7)))
+                    .getId();
+        }
+        if (reviews > 0) {
+            List<ReviewEntry> batch = new ArrayList<>();
+            for (int id : ids) {
+                for (int r = 0; r < reviews; r++) {
+                    batch.add(new ReviewEntry(id, 1 + random.nextInt(5), COMMENTS[random.nextInt(COMMENTS.length)]));
+                }
+                if (batch.size() >= 10_000) {
+                    pm.reviewProducts(batch);
+                    batch.clear();
+                }
+            }
+            pm.reviewProducts(batch);
+        }
+        return ids;
+    }
+
+    static String name(int i) {
+        return "product " + i;
+    }
+
+    /**
+     * Positions into a catalog of {@code size} products in random order, so
+     * lookups do not walk memory sequentially.
+     */
+    static int[] sequence(int size) {
+        Random random = new Random(7);
+        int[] positions = new int[SEQUENCE];
+        for (int i = 0; i < SEQUENCE; i++) {
+            positions[i] = random.nextInt(size);
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pm.data.Product;
+import pm.data.ProductManager;
+
+/**
+ * Loading of the whole catalog, from the report files or from the binary
+ * snapshot, and of a single report file. Loading from the reports includes
+ * writing the snapshot the journal then starts from.
+ *
+ * @author Oscar
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Stored {
+
+        @Param({ "1000", "100000" })
+        public int catalogSize;
+
+        /* every product needs a review to get a report file */
+        @Param({ "1", "10" })
+        public int reviewsPerProduct;
+
+        @Param({ "reports", "snapshot" })
+        public String source;
+
+        ProductManager pm;
+        Path report;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            Catalogs.clearDataFolder();
+            pm = ProductManager.getInstance();
+            Catalogs.populate(pm, catalogSize, reviewsPerProduct);
+            pm.checkpoint();
+            pm.flushReports();
+            try (Stream<Path> files = Files.list(Catalogs.dataFolder())) {
+                report = files.filter(f -> f.getFileName().toString().endsWith("report.csv"))
+                        .findFirst().orElseThrow();
+            }
+        }
+
+        /*
+         * a load from the reports ends with writing the first snapshot, as
+         * it does on a first start, so the next one has to go again
+         */
+        @Setup(Level.Invocation)
+        public void dropSnapshot() throws IOException {
+            if (source.equals("reports")) {
+                Files.deleteIfExists(Catalogs.snapshotFile());
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Catalogs.clearDataFolder();
+        }
+    }
+
+    @Benchmark
+    public ProductManager loadAllData(Stored stored) {
+        return ProductManager.getInstance();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Product loadProductCsv(Stored stored) {
+        return stored.pm.loadProductCsv(stored.report);
+    }
+}
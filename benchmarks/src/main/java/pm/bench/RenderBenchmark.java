@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import pm.data.Product;
+import pm.data.Rating;
+
+/**
+ * Rendering of single products, the full catalog and the discount totals.
+ *
+ * @author Oscar
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final Comparator<Product> BY_RATING = Comparator.comparing(Product::getRating).reversed();
+
+    @Benchmark
+    public String showProduct(CatalogState catalog, Cursor cursor) throws Exception {
+        return catalog.pm.showProduct(catalog.pm.findProduct(catalog.ids[cursor.next(catalog)]), "en_GB");
+    }
+
+    @Benchmark
+    public void printProducts(CatalogState catalog) throws IOException {
+        catalog.pm.printProducts(p -> p.getRating().ordinal() >= Rating.TWO_STAR.ordinal(), BY_RATING, "en_GB",
+                Writer.nullWriter());
+    }
+
+    @Benchmark
+    public void printTopProducts(CatalogState catalog) throws IOException {
+        catalog.pm.printProducts(p -> true, BY_RATING, "en_GB", 0, 20, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Map<String, String> getDiscounts(CatalogState catalog) {
+        return catalog.pm.getDiscounts("en_GB");
+    }
+}
@@ -1,7 +1,11 @@
 package com.example.demo;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+import pm.data.ProductManager;
 
 @SpringBootApplication
 public class DemoApplication {
@@ -10,4 +14,16 @@ public class DemoApplication {
 		SpringApplication.run(DemoApplication.class, args);
 	}
 
+	/**
+	 * The shop catalog, loaded once when the application starts from the
+	 * folder set by {@code pm.data.folder}, or the configured one.
+	 */
+	@Bean
+	public ProductManager productManager(@Value("${pm.data.folder:}") String dataFolder) {
+		if (!dataFolder.isEmpty()) {
+			System.setProperty("pm.data.folder", dataFolder);
+		}
+		return ProductManager.getInstance();
+	}
+
 }
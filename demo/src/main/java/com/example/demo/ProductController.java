@@ -0,0 +1,122 @@
+package com.example.demo;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import pm.data.CatalogView;
+import pm.data.Product;
+import pm.data.ProductManager;
+import pm.data.ProductManagerException;
+import pm.data.Rateable;
+
+/**
+ * HTTP access to the catalog. Reads answer with an ETag built from the
+ * version of the catalog or of the product and from the discounts in force,
+ * which change with the time of day, so a client revalidating an unchanged
+ * page gets a 304 without anything being rendered.
+ */
+@RestController
+@RequestMapping("/products")
+public class ProductController {
+
+	private final ProductManager pm;
+
+	public ProductController(ProductManager pm) {
+		this.pm = pm;
+	}
+
+	@GetMapping
+	public List<ProductResponse> browse(@RequestParam(defaultValue = "0") int offset,
+			@RequestParam(defaultValue = "20") int limit, WebRequest request) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		}
+		CatalogView view = pm.snapshot();
+		List<Product> page = view.stream().skip(offset).limit(limit).toList();
+		// a discount is either off or the one of the product version
+		BitSet discounted = new BitSet(page.size());
+		for (int i = 0; i < page.size(); i++) {
+			discounted.set(i, page.get(i).getDiscount().signum() != 0);
+		}
+		String discounts = HexFormat.of().formatHex(discounted.toByteArray());
+		if (request.checkNotModified(
+				"\"catalog-" + view.getVersion() + "-" + offset + "-" + limit + "-" + discounts + "\"")) {
+			return null;
+		}
+		return page.stream().map(ProductResponse::of).toList();
+	}
+
+	@GetMapping("/search")
+	public ProductResponse find(@RequestParam String name, WebRequest request) throws ProductManagerException {
+		Product product = pm.findProduct(name);
+		return request.checkNotModified(etag(product, "json")) ? null : ProductResponse.of(product);
+	}
+
+	@GetMapping("/{id}")
+	public ProductResponse find(@PathVariable int id, WebRequest request) throws ProductManagerException {
+		Product product = pm.findProduct(id);
+		return request.checkNotModified(etag(product, "json")) ? null : ProductResponse.of(product);
+	}
+
+	@GetMapping(path = "/{id}/page", produces = MediaType.TEXT_PLAIN_VALUE)
+	public String page(@PathVariable int id, @RequestParam(defaultValue = "en_GB") String lang,
+			WebRequest request) throws ProductManagerException {
+		Product product = pm.findProduct(id);
+		// the page of a drink shows the current date
+		return request.checkNotModified(etag(product, lang + "-" + LocalDate.now())) ? null
+				: pm.showProduct(product, lang);
+	}
+
+	@PostMapping("/{id}/reviews")
+	public ResponseEntity<ProductResponse> review(@PathVariable int id, @RequestBody ReviewRequest review)
+			throws ProductManagerException {
+		if (review.rating() < 0 || review.rating() > 5) {
+			throw new IllegalArgumentException("rating must be between 0 and 5");
+		}
+		if (review.comments() == null) {
+			throw new IllegalArgumentException("comments must not be null");
+		}
+		Product product = pm.reviewProduct(pm.findProduct(id), Rateable.convertInt(review.rating()),
+				review.comments());
+		return ResponseEntity.status(HttpStatus.CREATED).body(ProductResponse.of(product));
+	}
+
+	@DeleteMapping("/{id}")
+	public ResponseEntity<Void> delete(@PathVariable int id) throws ProductManagerException {
+		pm.findProduct(id);
+		pm.deleteProduct(id);
+		return ResponseEntity.noContent().build();
+	}
+
+	@ExceptionHandler(ProductManagerException.class)
+	public ProblemDetail notFound(ProductManagerException ex) {
+		return ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND, ex.getMessage());
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	public ProblemDetail badRequest(IllegalArgumentException ex) {
+		return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+	}
+
+	private static String etag(Product product, String variant) {
+		return "\"" + product.getId() + "-" + product.getVersion() + "-" + product.getDiscount().toPlainString() + "-"
+				+ variant + "\"";
+	}
+}
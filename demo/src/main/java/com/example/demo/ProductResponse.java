@@ -0,0 +1,31 @@
+package com.example.demo;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import pm.data.Food;
+import pm.data.Product;
+import pm.data.Review;
+
+/**
+ * JSON form of a product.
+ */
+public record ProductResponse(int id, String type, String name, BigDecimal price, BigDecimal discount,
+		int rating, String stars, LocalDate bestBefore, long version, List<ReviewResponse> reviews) {
+
+	public record ReviewResponse(int rating, String stars, String comments) {
+
+		static ReviewResponse of(Review review) {
+			return new ReviewResponse(review.getRating().ordinal(), review.getRating().getStars(),
+					review.getComments());
+		}
+	}
+
+	static ProductResponse of(Product product) {
+		return new ProductResponse(product.getId(), product.getType(), product.getName(), product.getPrice(),
+				product.getDiscount(), product.getRating().ordinal(), product.getRating().getStars(),
+				product instanceof Food ? product.getBestBefore() : null, product.getVersion(),
+				product.getReviews().stream().map(ReviewResponse::of).toList());
+	}
+}
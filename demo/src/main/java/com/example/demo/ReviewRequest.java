@@ -0,0 +1,7 @@
+package com.example.demo;
+
+/**
+ * Body of a new review: from 0 to 5 stars and a comment, which is required.
+ */
+public record ReviewRequest(int rating, String comments) {
+}
@@ -1,11 +1,24 @@
 package com.example.demo;
 
+import java.nio.file.Path;
+
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 
 @SpringBootTest
 class DemoApplicationTests {
 
+	@TempDir
+	static Path dataFolder;
+
+	@DynamicPropertySource
+	static void dataFolder(DynamicPropertyRegistry registry) {
+		registry.add("pm.data.folder", dataFolder::toString);
+	}
+
 	@Test
 	void contextLoads() {
 	}
@@ -0,0 +1,88 @@
+package com.example.demo;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import pm.data.Product;
+import pm.data.ProductManager;
+import pm.data.Rating;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ProductControllerTests {
+
+	@TempDir
+	static Path dataFolder;
+
+	@DynamicPropertySource
+	static void dataFolder(DynamicPropertyRegistry registry) {
+		registry.add("pm.data.folder", dataFolder::toString);
+	}
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ProductManager pm;
+
+	@Test
+	void unchangedProductIsNotSentAgain() throws Exception {
+		Product product = pm.createProductDrink("Drink", "Etag tea", new BigDecimal("1.99"), Rating.NOT_RATED);
+		String etag = mvc.perform(get("/products/{id}", product.getId()))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.name").value("Etag tea"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mvc.perform(get("/products/{id}", product.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		mvc.perform(post("/products/{id}/reviews", product.getId())
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"rating\":4,\"comments\":\"Nice\"}"))
+				.andExpect(status().isCreated())
+				.andExpect(jsonPath("$.reviews[0].comments").value("Nice"));
+
+		mvc.perform(get("/products/{id}", product.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(header().exists(HttpHeaders.ETAG));
+	}
+
+	@Test
+	void reviewWithoutCommentsIsRejected() throws Exception {
+		Product product = pm.createProductDrink("Drink", "Silent tea", new BigDecimal("1.99"), Rating.NOT_RATED);
+
+		mvc.perform(post("/products/{id}/reviews", product.getId())
+				.contentType(MediaType.APPLICATION_JSON)
+				.content("{\"rating\":4}"))
+				.andExpect(status().isBadRequest());
+		mvc.perform(get("/products/{id}", product.getId()))
+				.andExpect(jsonPath("$.reviews").isEmpty());
+	}
+
+	@Test
+	void deletedProductIsNotFound() throws Exception {
+		Product product = pm.createProductDrink("Drink", "Deleted tea", new BigDecimal("1.99"), Rating.NOT_RATED);
+
+		mvc.perform(delete("/products/{id}", product.getId())).andExpect(status().isNoContent());
+		mvc.perform(get("/products/{id}", product.getId())).andExpect(status().isNotFound());
+	}
+
+}
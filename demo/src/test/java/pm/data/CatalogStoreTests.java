@@ -0,0 +1,42 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CatalogStoreTests {
+
+	@Test
+	void sharedNameFindsTheRemainingProduct() {
+		CatalogStore store = new CatalogStore();
+		store.put(tea(1));
+		store.put(tea(2));
+		assertEquals(1, store.get("tea").getId());
+
+		store.remove(1);
+		assertEquals(2, store.get("tea").getId());
+		store.put(tea(1));
+		store.remove(2);
+		assertEquals(1, store.get("tea").getId());
+		store.remove(1);
+		assertNull(store.get("tea"));
+	}
+
+	@Test
+	void renamedProductIsFoundByItsNewName() {
+		CatalogStore store = new CatalogStore();
+		store.load(List.of(tea(1), tea(2)));
+		store.put(new Drink(1, "Drink", "green tea", new BigDecimal("1.99"), Rating.NOT_RATED));
+
+		assertEquals(2, store.get("tea").getId());
+		assertEquals(1, store.get("green tea").getId());
+	}
+
+	private static Product tea(int id) {
+		return new Drink(id, "Drink", "tea", new BigDecimal("1.99"), Rating.NOT_RATED);
+	}
+}
@@ -0,0 +1,104 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class CatalogViewTests {
+
+	@Test
+	void lookupsByIdFollowEachVersion() {
+		List<Product> loaded = new ArrayList<>();
+		for (int id = -2; id < 3000; id += 3) {
+			loaded.add(drink(id));
+		}
+		CatalogView view = CatalogView.EMPTY.replacedBy(loaded);
+		for (Product product : loaded) {
+			assertSame(product, view.get(product.getId()));
+		}
+
+		Product far = drink(1_000_001);
+		CatalogView later = view.with(far).without(1).without(-2);
+		assertSame(far, later.get(1_000_001));
+		assertNull(later.get(1));
+		assertNull(later.get(-2));
+		assertNull(later.get(2));
+		assertNull(later.get(5000));
+		// the earlier version keeps its own table
+		assertSame(loaded.get(1), view.get(1));
+		assertSame(loaded.get(0), view.get(-2));
+		assertNull(view.get(1_000_001));
+	}
+
+	@Test
+	void staysBalancedAndOrderedUnderInsertsAndRemovals() {
+		Random random = new Random(42);
+		TreeMap<Integer, Product> expected = new TreeMap<>();
+		CatalogView view = CatalogView.EMPTY;
+		for (int step = 0; step < 20_000; step++) {
+			int id = random.nextInt(2_000);
+			if (random.nextInt(3) == 0) {
+				expected.remove(id);
+				view = view.without(id);
+			} else {
+				Product product = drink(id);
+				expected.put(id, product);
+				view = view.with(product);
+			}
+			if (step % 500 == 0) {
+				check(expected, view);
+			}
+		}
+		check(expected, view);
+
+		// ascending inserts are the worst case for an unbalanced tree
+		view = CatalogView.EMPTY;
+		expected.clear();
+		for (int id = 0; id < 4_096; id++) {
+			expected.put(id, drink(id));
+			view = view.with(expected.get(id));
+		}
+		check(expected, view);
+	}
+
+	@Test
+	void earlierVersionsDoNotSeeLaterWrites() {
+		CatalogView first = CatalogView.EMPTY.with(drink(1)).with(drink(2)).with(drink(3));
+		CatalogView second = first.without(2).with(drink(4));
+		Product replaced = drink(1);
+		CatalogView third = second.with(replaced);
+
+		assertEquals(List.of(1, 2, 3), ids(first));
+		assertEquals(List.of(1, 3, 4), ids(second));
+		assertSame(replaced, third.get(1));
+		assertSame(first.get(1), second.get(1));
+		assertEquals(first.getVersion() + 2, second.getVersion());
+	}
+
+	static Product drink(int id) {
+		return new Drink(id, "Drink", "Drink " + id, new BigDecimal("1.99"), Rating.NOT_RATED);
+	}
+
+	private static void check(TreeMap<Integer, Product> expected, CatalogView view) {
+		assertEquals(expected.size(), view.size());
+		assertEquals(new ArrayList<>(expected.keySet()), ids(view));
+		expected.forEach((id, product) -> assertSame(product, view.get(id)));
+		double bound = 1.45 * Math.log(view.size() + 2) / Math.log(2);
+		assertTrue(view.height() <= bound, "height " + view.height() + " for " + view.size() + " products");
+	}
+
+	private static List<Integer> ids(CatalogView view) {
+		List<Integer> ids = new ArrayList<>();
+		view.forEach(product -> ids.add(product.getId()));
+		return ids;
+	}
+}
@@ -0,0 +1,106 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalReplayTests {
+
+	private static final int ID = 1_000_001;
+
+	@TempDir
+	Path folder;
+
+	private final ProductManagerMetrics metrics = new ProductManagerMetrics(false, () -> 0);
+
+	@Test
+	void identicalReviewsSurviveACrash() throws IOException {
+		Path file = folder.resolve("catalog.journal");
+		try (CatalogJournal journal = open(file)) {
+			journal.create(new Drink(ID, "Drink", "Replayed tea", new BigDecimal("1.99"), Rating.NOT_RATED));
+			journal.review(ID, new Review(Rating.FOUR_STAR, "Nice"));
+			journal.review(ID, new Review(Rating.FOUR_STAR, "Nice"));
+		}
+		tearTail(file);
+
+		CatalogStore store = new CatalogStore();
+		try (CatalogJournal journal = open(file)) {
+			assertEquals(3, journal.replay(replay(store), 0));
+		}
+		assertEquals(List.of(new Review(Rating.FOUR_STAR, "Nice"), new Review(Rating.FOUR_STAR, "Nice")),
+				store.get(ID).getReviews());
+		assertEquals(Rating.FOUR_STAR, store.get(ID).getRating());
+	}
+
+	@Test
+	void recordsInTheSnapshotAreNotReplayed() throws IOException {
+		Path file = folder.resolve("catalog.journal");
+		Path snapshot = folder.resolve("catalog.snapshot");
+		CatalogStore store = new CatalogStore();
+		try (CatalogJournal journal = open(file)) {
+			Product product = new Drink(ID, "Drink", "Replayed tea", new BigDecimal("1.99"), Rating.NOT_RATED);
+			journal.create(product);
+			store.put(product);
+			Review review = new Review(Rating.FIVE_STAR, "Great");
+			journal.review(ID, review);
+			store.put(store.get(ID).withReviews(List.of(review)));
+			// crash after the snapshot is written, before the journal is emptied
+			CatalogSnapshot.write(snapshot, store.snapshot(), journal.lsn());
+			journal.review(ID, review);
+		}
+
+		CatalogSnapshot.Image image = CatalogSnapshot.read(snapshot);
+		CatalogStore recovered = new CatalogStore();
+		recovered.load(image.products);
+		try (CatalogJournal journal = open(file)) {
+			assertEquals(1, journal.replay(replay(recovered), image.lsn));
+			assertEquals(3, journal.lsn());
+		}
+		assertEquals(List.of(new Review(Rating.FIVE_STAR, "Great"), new Review(Rating.FIVE_STAR, "Great")),
+				recovered.get(ID).getReviews());
+	}
+
+	@Test
+	void batchedCreatesAreReplayedInOrder() throws IOException {
+		Path file = folder.resolve("catalog.journal");
+		try (CatalogJournal journal = open(file)) {
+			journal.create(List.of(new Drink(ID, "Drink", "Batched tea", new BigDecimal("1.99"), Rating.NOT_RATED),
+					new Drink(ID + 1, "Drink", "Batched coffee", new BigDecimal("2.49"), Rating.NOT_RATED)));
+			assertEquals(2, journal.lsn());
+		}
+
+		CatalogStore store = new CatalogStore();
+		try (CatalogJournal journal = open(file)) {
+			assertEquals(2, journal.replay(replay(store), 0));
+		}
+		assertEquals("Batched tea", store.get(ID).getName());
+		assertEquals("Batched coffee", store.get(ID + 1).getName());
+	}
+
+	private CatalogJournal open(Path file) throws IOException {
+		return CatalogJournal.open(file, CatalogJournal.SyncPolicy.ALWAYS, 1, 50, metrics);
+	}
+
+	private static JournalReplay replay(CatalogStore store) {
+		return new JournalReplay(store, "No reviews", product -> product, new HashSet<>());
+	}
+
+	/**
+	 * Appends half a record, as a crash in the middle of a write leaves.
+	 */
+	private static void tearTail(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.allocate(6).putInt(40).put((byte) 2).flip());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LazyLoadingTests {
+
+	private static final List<String> QUERIES = List.of("tea", "bitter", "smooth aroma", "cake", "biter");
+
+	@TempDir
+	Path folder;
+
+	private final ProductManagerMetrics metrics = new ProductManagerMetrics(false, () -> 0);
+
+	@BeforeEach
+	void writeReports() throws IOException {
+		report(101, "Name: Green tea, Type: Drink, Price: ¤1.99, Rating: ★★★☆☆, Best Before: 2021-10-03",
+				"Review: ★★★★☆\tSmooth and fresh", "Review: ★★☆☆☆\tA little bitter");
+		report(102, "Name: Black tea, Type: Drink, Price: ¤2.49, Rating: ★★☆☆☆, Best Before: 2021-10-03",
+				"Review: ★☆☆☆☆\tToo bitter", "Review: ★★★☆☆\tStrong aroma, smooth finish",
+				"Review: ★★★☆☆\tToo bitter");
+		report(103, "Name: Carrot cake, Type: Food, Price: ¤3.10, Rating: ★★★★★, Best Before: 2021-10-05",
+				"Review: ★★★★★\tBest cake with tea", "Review: ★★★★★\tMoist and sweet");
+		report(104, "Name: Coffee, Type: Drink, Price: ¤1.50, Rating: ☆☆☆☆☆, Best Before: 2021-10-03",
+				"Not reviewed");
+	}
+
+	@Test
+	void lazyReportsMatchEagerReports() throws IOException {
+		List<Product> eager = loader(false).loadAll();
+		List<Product> lazy = loader(true).loadAll();
+
+		assertEquals(reviews(eager), reviews(lazy));
+		assertEquals(hits(eager), hits(lazy));
+	}
+
+	@Test
+	void lazySnapshotMatchesEagerSnapshot() throws IOException {
+		Path snapshot = folder.resolve("catalog.snapshot");
+		CatalogSnapshot.write(snapshot, loader(false).loadAll(), 7);
+
+		CatalogSnapshot.Image eager = CatalogSnapshot.read(snapshot, false);
+		CatalogSnapshot.Image lazy = CatalogSnapshot.read(snapshot, true);
+
+		assertEquals(eager.lsn, lazy.lsn);
+		assertFalse(lazy.products.get(0).reviewStore().isResident());
+		assertEquals(reviews(eager.products), reviews(lazy.products));
+		assertEquals(hits(eager.products), hits(lazy.products));
+	}
+
+	@Test
+	void lazySnapshotReadsTheFileItWasLoadedFrom() throws IOException {
+		Path snapshot = folder.resolve("catalog.snapshot");
+		List<Product> products = loader(false).loadAll();
+		CatalogSnapshot.write(snapshot, products, 7);
+		CatalogSnapshot.Image lazy = CatalogSnapshot.read(snapshot, true);
+
+		// a checkpoint renames a snapshot with other reviews over the file
+		List<Product> changed = new ArrayList<>();
+		for (Product product : products) {
+			changed.add(product.withReviews(List.of(new Review(Rating.ONE_STAR, "Changed after the load"))));
+		}
+		CatalogSnapshot.write(snapshot, changed, 8);
+
+		assertEquals(reviews(products), reviews(lazy.products));
+	}
+
+	private CatalogLoader loader(boolean lazy) {
+		return new CatalogLoader(folder, "product{0}report.csv", "Not reviewed", lazy, metrics);
+	}
+
+	private void report(int id, String header, String... reviews) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(header);
+		lines.addAll(List.of(reviews));
+		Files.write(folder.resolve("product" + id + "report.csv"), lines, UTF_8);
+	}
+
+	private static Map<Integer, List<Review>> reviews(Collection<Product> products) {
+		Map<Integer, List<Review>> reviews = new TreeMap<>();
+		for (Product product : products) {
+			reviews.put(product.getId(), List.copyOf(product.getReviews()));
+		}
+		return reviews;
+	}
+
+	private static List<String> hits(Collection<Product> products) {
+		CatalogStore store = new CatalogStore();
+		SearchIndex index = new SearchIndex();
+		store.addListener(index);
+		store.load(products);
+		List<String> hits = new ArrayList<>();
+		for (String query : QUERIES) {
+			for (SearchHit hit : index.search(query, 0, 10)) {
+				hits.add(query + " " + hit.getProduct().getId() + " " + hit.getScore());
+			}
+		}
+		return hits;
+	}
+}
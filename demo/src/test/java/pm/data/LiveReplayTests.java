@@ -0,0 +1,96 @@
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LiveReplayTests {
+
+	private static final int TEA = 101;
+	private static final int CAKE = 102;
+	private static final int GONE = 103;
+
+	@TempDir
+	static Path folder;
+
+	private static ProductManager pm;
+
+	@BeforeAll
+	static void load() throws IOException {
+		report(TEA, "Name: Tea, Type: Drink, Price: ¤1.99, Rating: ☆☆☆☆☆, Best Before: 2021-10-03");
+		report(CAKE, "Name: Cake, Type: Food, Price: ¤3.99, Rating: ☆☆☆☆☆, Best Before: 2021-10-05");
+		report(GONE, "Name: Scone, Type: Food, Price: ¤2.49, Rating: ☆☆☆☆☆, Best Before: 2021-10-05");
+		System.setProperty("pm.data.folder", folder.toString());
+		pm = ProductManager.getInstance();
+	}
+
+	@Test
+	void replayRebuildsTheLiveCatalog() throws Exception {
+		Product tea = pm.reviewProduct(TEA, Rating.FIVE_STAR, "Great");
+		pm.printReview(TEA, new Review(Rating.FOUR_STAR, "Nice"));
+		pm.reviewProducts(List.of(new ReviewEntry(CAKE, Rating.TWO_STAR, "Dry"),
+				new ReviewEntry(CAKE, Rating.FOUR_STAR, "Sweet")));
+		Product coffee = pm.createProductDrink("Drink", "Coffee", new BigDecimal("2.10"), Rating.NOT_RATED);
+		pm.reviewProduct(coffee.getId(), Rating.THREE_STAR, "Strong");
+		Product scone = pm.findProduct(GONE);
+		pm.deleteProduct(GONE);
+
+		assertEquals(List.of(new Review(Rating.FIVE_STAR, "Great")), tea.getReviews());
+		assertEquals(Rating.FIVE_STAR, tea.getRating());
+		assertNull(pm.reviewProduct(scone, Rating.ONE_STAR, "Stale"));
+
+		CatalogStore recovered = recover();
+		for (int id : List.of(TEA, CAKE, coffee.getId())) {
+			Product live = pm.findProduct(id);
+			assertEquals(live.getReviews(), recovered.get(id).getReviews());
+			assertEquals(live.getRating(), recovered.get(id).getRating());
+		}
+		assertNull(recovered.get(GONE));
+		assertEquals(pm.snapshot().size(), recovered.size());
+	}
+
+	@Test
+	void importedProductsGetTheirReports() throws Exception {
+		Path feed = folder.resolve("feed.csv");
+		Files.write(feed, List.of("Imported tea,Drink,1.99,4,2021-10-03", "Imported cake,Food,2.99,3,2021-10-05"),
+				UTF_8);
+
+		assertEquals(2, pm.importProducts(feed).getApplied());
+		pm.flushReports();
+		for (String name : List.of("Imported tea", "Imported cake")) {
+			Path report = folder.resolve("product" + pm.findProduct(name).getId() + "report.csv");
+			assertTrue(Files.readString(report, UTF_8).contains(name));
+		}
+	}
+
+	/**
+	 * Catalog rebuilt from the snapshot written at startup and the journal,
+	 * as after a crash.
+	 */
+	private static CatalogStore recover() throws IOException {
+		CatalogSnapshot.Image image = CatalogSnapshot.read(folder.resolve("catalog.snapshot"));
+		CatalogStore store = new CatalogStore();
+		store.load(image.products);
+		try (CatalogJournal journal = CatalogJournal.open(folder.resolve("catalog.journal"),
+				CatalogJournal.SyncPolicy.ALWAYS, 1, 50, new ProductManagerMetrics(false, () -> 0))) {
+			journal.replay(new JournalReplay(store, "Not reviewed", product -> product, new HashSet<>()), image.lsn);
+		}
+		return store;
+	}
+
+	private static void report(int id, String header) throws IOException {
+		Files.write(folder.resolve("product" + id + "report.csv"), List.of(header, "Not reviewed"), UTF_8);
+	}
+}
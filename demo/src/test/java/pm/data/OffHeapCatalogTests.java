@@ -0,0 +1,27 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapCatalogTests {
+
+	@Test
+	void flyweightDecodesItsNameOnce() {
+		OffHeapCatalog catalog = new OffHeapCatalog();
+		Product cake = catalog.adopt(new Food(7, "Food", "Crème brûlée", new BigDecimal("3.99"), Rating.NOT_RATED,
+				LocalDate.of(2021, 10, 5)));
+
+		String name = cake.getName();
+		assertEquals("Crème brûlée", name);
+		assertSame(name, cake.getName());
+		Product reviewed = cake.withReviews(List.of(new Review(Rating.FIVE_STAR, "Rich")));
+		assertSame(name, reviewed.getName());
+		assertEquals(Rating.FIVE_STAR, reviewed.getRating());
+	}
+}
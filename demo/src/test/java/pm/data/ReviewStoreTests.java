@@ -0,0 +1,87 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class ReviewStoreTests {
+
+	private static final Review NICE = new Review(Rating.FOUR_STAR, "Nice");
+	private static final Review BLAND = new Review(Rating.TWO_STAR, "Bland");
+	private static final Review GREAT = new Review(Rating.FIVE_STAR, "Great");
+
+	@Test
+	void repeatedRuntimeCommentsShareOneString() {
+		String first = new String("Lovely and fresh");
+		String second = new String("Lovely and fresh");
+		ReviewStore store = ReviewStore.of(List.of(new Review(Rating.FOUR_STAR, first)))
+				.plusAll(List.of(new Review(Rating.FIVE_STAR, second)));
+		ReviewStore other = ReviewStore.EMPTY.plusAll(List.of(new Review(Rating.TWO_STAR, new String(first))));
+
+		assertSame(store.comment(0), store.comment(1));
+		assertSame(store.comment(0), other.comment(0));
+	}
+
+	@Test
+	void branchesOfOneStoreKeepTheirOwnReviews() {
+		ReviewStore base = ReviewStore.of(List.of(NICE));
+		ReviewStore left = base.plusAll(List.of(BLAND));
+		ReviewStore right = base.plusAll(List.of(GREAT));
+		ReviewStore longer = left.plusAll(List.of(GREAT, NICE));
+
+		assertEquals(List.of(NICE), base);
+		assertEquals(List.of(NICE, BLAND), left);
+		assertEquals(List.of(NICE, GREAT), right);
+		assertEquals(List.of(NICE, BLAND, GREAT, NICE), longer);
+		assertTrue(left.continues(base));
+		assertTrue(longer.continues(left));
+		assertFalse(right.continues(base));
+		assertFalse(right.continues(left));
+		assertFalse(left.continues(right));
+		assertEquals(List.of(NICE, GREAT, BLAND), right.plusAll(List.of(BLAND)));
+		assertEquals(List.of(NICE, BLAND, GREAT, NICE), longer);
+	}
+
+	@Test
+	void concurrentBranchesDoNotOverwriteEachOther() throws Exception {
+		ReviewStore base = ReviewStore.of(List.of(NICE, BLAND));
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<ReviewStore>> appends = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				Review own = new Review(Rating.THREE_STAR, "Branch " + i);
+				appends.add(() -> base.plusAll(List.of(own)));
+			}
+			List<Future<ReviewStore>> branches = pool.invokeAll(appends);
+			for (int i = 0; i < branches.size(); i++) {
+				assertEquals(List.of(NICE, BLAND, new Review(Rating.THREE_STAR, "Branch " + i)), branches.get(i).get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(List.of(NICE, BLAND), base);
+	}
+
+	@Test
+	void removingReviewsLeavesTheStoreAsItWas() {
+		ReviewStore store = ReviewStore.of(List.of(NICE, BLAND, GREAT, BLAND));
+
+		assertSame(store, store.minusIf(review -> review.getRating() == Rating.ONE_STAR));
+		assertSame(ReviewStore.EMPTY, store.minusIf(review -> true));
+		ReviewStore kept = store.minusIf(BLAND::equals);
+		assertEquals(List.of(NICE, GREAT), kept);
+		assertEquals(List.of(NICE, BLAND, GREAT, BLAND), store);
+		assertEquals(List.of(NICE, GREAT, BLAND), kept.plusAll(List.of(BLAND)));
+		assertEquals(List.of(NICE, BLAND, GREAT, BLAND), store);
+	}
+}
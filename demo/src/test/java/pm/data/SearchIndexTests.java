@@ -0,0 +1,55 @@
+package pm.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class SearchIndexTests {
+
+	@Test
+	void searchSeesEveryWriteMadeBeforeIt() throws Exception {
+		CatalogStore store = new CatalogStore();
+		SearchIndex index = new SearchIndex();
+		store.addListener(index);
+		ExecutorService writers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int first = t * 500 + 1;
+				done.add(writers.submit(() -> {
+					for (int id = first; id < first + 500; id++) {
+						Product tea = new Drink(id, "Drink", "Tea " + id, new BigDecimal("1.99"), Rating.NOT_RATED);
+						store.put(tea);
+						store.put(tea.withReviews(List.of(new Review(Rating.FIVE_STAR, "Fragrant"))));
+						if (id % 5 == 0) {
+							store.remove(id);
+						}
+					}
+				}));
+			}
+			for (Future<?> writer : done) {
+				writer.get();
+			}
+		} finally {
+			writers.shutdown();
+		}
+
+		assertEquals(1600, index.search("fragrant", 0, 2000).size());
+		assertEquals(7, ids(index.search("7", 0, 10)).get(0));
+		assertFalse(ids(index.search("10", 0, 2000)).contains(10));
+	}
+
+	private static List<Integer> ids(List<SearchHit> hits) {
+		List<Integer> ids = new ArrayList<>();
+		hits.forEach(hit -> ids.add(hit.getProduct().getId()));
+		return ids;
+	}
+}
@@ -94,7 +94,7 @@ public class Shop {
 
             case "2":
                 do {
-                    System.out.println("You can search product by:\n" + "1.- Id.\n" + "2.- Name.\n");
+                    System.out.println("You can search product by:\n" + "1.- Id.\n" + "2.- Name.\n" + "3.- Text.\n");
                     String search = sc.next();
 
                     switch (search) {
@@ -110,7 +110,7 @@ public class Shop {
                             break;
                         case "2":
                             System.out.println("Enter the Name:\t");
-                            String name = sc.nextLine();
+                            String name = readLine(sc);
                             try {
                                 System.out.println(System.lineSeparator() + pm.findProduct(name));
                             } catch (ProductManagerException e) {
@@ -118,6 +118,13 @@ public class Shop {
                             }
                             pass = false;
                             break;
+                        case "3":
+                            System.out.println("Enter the words to search:\t");
+                            for (SearchHit hit : pm.searchProducts(readLine(sc), 0, 10)) {
+                                System.out.println(System.lineSeparator() + hit.getProduct());
+                            }
+                            pass = false;
+                            break;
 
                         default:
                             System.out.println("Please enter a valid option.");
@@ -152,7 +159,9 @@ public class Shop {
                 productFormat.append(sc.next());
                 System.out.println(productFormat.toString());
                 Product p = pm.parseProduct(productFormat.toString());
-                pm.printProductReport(p.getId());
+                if (p != null) {
+                    System.out.println(pm.showProduct(p));
+                }
                 break;
 
             case "5":
@@ -169,7 +178,6 @@ public class Shop {
 
                 System.out.println("\n" + productReview);
                 pm.printReview(id, pm.parseReview(productReview.toString()));
-                pm.printProductReport(id);
                 break;
 
             case "6":
@@ -184,7 +192,7 @@ public class Shop {
                     break;
                 case 2:
                     System.out.println("Enter the Name:\t");
-                    String name = sc.nextLine();
+                    String name = readLine(sc);
                     System.out.println(pm.deleteProduct(name));
                     break;
                 case 0:
@@ -198,6 +206,7 @@ public class Shop {
 
             case "0":
                 System.out.println("Coming back soon");
+                pm.checkpoint();
                 pass = false;
                 break;
 
@@ -210,4 +219,13 @@ public class Shop {
         }
         sc.close();
     }
+
+    /**
+     * Reads a whole line, skipping what is left of the line of the previous
+     * token, so names with spaces are read in full.
+     */
+    private static String readLine(Scanner sc) {
+        String line = sc.nextLine().trim();
+        return line.isEmpty() ? sc.nextLine().trim() : line;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batch operation: how many entries were applied and why the
+ * others were rejected.
+ *
+ * @author Oscar
+ */
+public class BatchResult {
+
+    /**
+     * An entry of the batch that could not be applied.
+     */
+    public static class Failure {
+
+        private final int index;
+        private final String message;
+
+        Failure(int index, String message) {
+            this.index = index;
+            this.message = message;
+        }
+
+        /**
+         * Position of the entry in the batch.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + index + ": " + message;
+        }
+    }
+
+    private int applied;
+    private final List<Failure> failures = new ArrayList<>();
+
+    void applied(int count) {
+        applied += count;
+    }
+
+    void failed(int index, String message) {
+        failures.add(new Failure(index, message));
+    }
+
+    public int getApplied() {
+        return applied;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    @Override
+    public String toString() {
+        return "applied=" + applied + ", failed=" + failures.size();
+    }
+}
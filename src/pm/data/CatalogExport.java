@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the whole catalog with its reviews into a single file. Records
+ * are encoded into one large direct buffer that is written to the file
+ * channel whenever it fills up, optionally through gzip, and the file is
+ * renamed into place once complete.
+ *
+ * @author Oscar
+ */
+final class CatalogExport {
+
+    private static final byte[] HEADER = "record,id,type,name,price,rating,best_before,comments\n".getBytes(UTF_8);
+
+    private CatalogExport() {
+    }
+
+    /**
+     * Writes the products to the file and returns its size.
+     */
+    static long write(Path file, Collection<Product> products, ExportFormat format, boolean compress)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (compress) {
+                    GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel),
+                            CatalogSnapshot.BUFFER_SIZE);
+                    write(Channels.newChannel(gzip), products, format);
+                    gzip.finish();
+                } else {
+                    write(channel, products, format);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            CatalogSnapshot.discard(temp, ex);
+            throw ex;
+        }
+        return Files.size(file);
+    }
+
+    private static void write(WritableByteChannel channel, Collection<Product> products, ExportFormat format)
+            throws IOException {
+        if (format == ExportFormat.BINARY) {
+            // an export stands alone, apart from any journal
+            CatalogSnapshot.write(channel, products, 0);
+        } else {
+            writeCsv(channel, products);
+        }
+    }
+
+    private static void writeCsv(WritableByteChannel channel, Collection<Product> products) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CatalogSnapshot.BUFFER_SIZE);
+        buffer.put(HEADER);
+        StringBuilder lines = new StringBuilder(256);
+        for (Product product : products) {
+            lines.setLength(0);
+            int id = product.getId();
+            lines.append("product,").append(id).append(',');
+            quote(lines, product.getType()).append(',');
+            quote(lines, product.getName()).append(',');
+            lines.append(product.getPrice().toPlainString()).append(',');
+            lines.append(product.getRating().ordinal()).append(',');
+            if (product instanceof Food) {
+                lines.append(product.getBestBefore());
+            }
+            lines.append(",\n");
+            ReviewStore reviews = product.reviewStore();
+            for (int i = 0; i < reviews.size(); i++) {
+                lines.append("review,").append(id).append(",,,,").append(reviews.rating(i).ordinal()).append(",,");
+                quote(lines, reviews.comment(i)).append('\n');
+            }
+            byte[] bytes = lines.toString().getBytes(UTF_8);
+            buffer = CatalogSnapshot.ensure(channel, buffer, bytes.length);
+            buffer.put(bytes);
+        }
+        CatalogSnapshot.drain(channel, buffer);
+    }
+
+    private static StringBuilder quote(StringBuilder out, String value) {
+        if (value == null) {
+            return out;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            return out.append(value);
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        return out.append('"');
+    }
+}
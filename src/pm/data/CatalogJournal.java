@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the catalog mutations. Every record is framed as
+ * length, body and CRC32 so a record torn by a crash is detected and cut off
+ * when the journal is replayed. A write that fails is rolled back, both in
+ * the buffer and in the file, so the journal always ends after the last
+ * complete record. Records carry increasing sequence numbers that go on
+ * across resets, so a snapshot can tell which records it already holds.
+ *
+ * @author Oscar
+ */
+final class CatalogJournal implements AutoCloseable {
+
+    enum SyncPolicy {
+        /** fsync after every record. */
+        ALWAYS,
+        /** fsync once a group of records is pending or the group interval elapses. */
+        GROUP,
+        /** leave flushing to the operating system until the journal is closed. */
+        NEVER
+    }
+
+    /**
+     * Receives the records of the journal in the order they were written.
+     */
+    interface Replay {
+
+        void create(int id, String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore);
+
+        void review(int id, Rating rating, String comments);
+
+        void delete(int id);
+    }
+
+    private static final Logger logger = Logger.getLogger(CatalogJournal.class.getName());
+
+    private static final byte CREATE = 1;
+    private static final byte REVIEW = 2;
+    private static final byte DELETE = 3;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+    private final int groupSize;
+    private final ScheduledExecutorService syncer;
+    private final ProductManagerMetrics metrics;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private int recordStart;
+    private int pending;
+    private long end;
+    private long lsn;
+
+    private CatalogJournal(Path file, SyncPolicy policy, int groupSize, long groupMillis,
+            ProductManagerMetrics metrics) throws IOException {
+        this.file = file;
+        this.metrics = metrics;
+        this.policy = policy;
+        this.groupSize = groupSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.end = channel.size();
+        this.channel.position(end);
+        if (policy == SyncPolicy.GROUP) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "catalog-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncPending, groupMillis, groupMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    static CatalogJournal open(Path file, SyncPolicy policy, int groupSize, long groupMillis,
+            ProductManagerMetrics metrics) throws IOException {
+        return new CatalogJournal(file, policy, groupSize, groupMillis, metrics);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Sequence number of the last record written or replayed.
+     */
+    synchronized long lsn() {
+        return lsn;
+    }
+
+    void create(Product product) throws IOException {
+        create(List.of(product));
+    }
+
+    /**
+     * Appends the creation of the products with a single write, synced once
+     * for the whole batch.
+     */
+    void create(List<Product> products) throws IOException {
+        List<byte[][]> fields = new ArrayList<>(products.size());
+        for (Product product : products) {
+            fields.add(new byte[][] { product.getType().getBytes(UTF_8), product.getName().getBytes(UTF_8),
+                    product.getPrice().toPlainString().getBytes(UTF_8) });
+        }
+        append(() -> {
+            for (int i = 0; i < products.size(); i++) {
+                Product product = products.get(i);
+                byte[][] field = fields.get(i);
+                ByteBuffer body = begin(CREATE, 26 + field[0].length + field[1].length + field[2].length);
+                body.putInt(product.getId());
+                putBytes(body, field[0]);
+                putBytes(body, field[1]);
+                putBytes(body, field[2]);
+                body.put((byte) product.getRating().ordinal());
+                body.putLong(product instanceof Food ? product.getBestBefore().toEpochDay() : NO_DATE);
+                end();
+            }
+        });
+    }
+
+    void review(int id, Review review) throws IOException {
+        byte[] comments = review.getComments().getBytes(UTF_8);
+        append(() -> {
+            ByteBuffer body = begin(REVIEW, 9 + comments.length);
+            body.putInt(id);
+            body.put((byte) review.getRating().ordinal());
+            putBytes(body, comments);
+            end();
+        });
+    }
+
+    /**
+     * Appends the reviews of one product with a single write.
+     */
+    void review(int id, List<Review> reviews) throws IOException {
+        List<byte[]> comments = new ArrayList<>(reviews.size());
+        for (Review review : reviews) {
+            comments.add(review.getComments().getBytes(UTF_8));
+        }
+        append(() -> {
+            for (int i = 0; i < reviews.size(); i++) {
+                ByteBuffer body = begin(REVIEW, 9 + comments.get(i).length);
+                body.putInt(id);
+                body.put((byte) reviews.get(i).getRating().ordinal());
+                putBytes(body, comments.get(i));
+                end();
+            }
+        });
+    }
+
+    void delete(int id) throws IOException {
+        append(() -> {
+            ByteBuffer body = begin(DELETE, 4);
+            body.putInt(id);
+            end();
+        });
+    }
+
+    /**
+     * Frames records into the buffer and writes them, or leaves both the
+     * buffer and the file as they were when anything fails.
+     */
+    private synchronized void append(Runnable records) throws IOException {
+        long last = lsn;
+        try {
+            records.run();
+            commit();
+        } catch (IOException | RuntimeException ex) {
+            rollback(last, ex);
+            throw ex;
+        }
+    }
+
+    private void rollback(long last, Exception cause) {
+        buffer.clear();
+        lsn = last;
+        try {
+            if (channel.size() > end) {
+                channel.truncate(end);
+            }
+            channel.position(end);
+        } catch (IOException ex) {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * Feeds every intact record numbered after {@code covered} to
+     * {@code replay} and truncates the journal after the last one, dropping
+     * a record torn by a crash. Records up to {@code covered} are already
+     * part of the loaded catalog and are skipped.
+     *
+     * @return the number of records replayed
+     */
+    synchronized int replay(Replay replay, long covered) throws IOException {
+        long size = channel.size();
+        lsn = covered;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer record = ByteBuffer.allocate(256);
+
+        int records = 0;
+        long valid = 0;
+        try {
+            while (read(header.clear(), valid)) {
+                int length = header.flip().getInt();
+                if (length <= 0 || length > size - valid - 2 * Integer.BYTES) {
+                    break;
+                }
+                if (record.capacity() < length + Integer.BYTES) {
+                    record = ByteBuffer.allocate(Integer.highestOneBit(length + Integer.BYTES) << 1);
+                }
+                record.clear().limit(length + Integer.BYTES);
+                if (!read(record, valid + Integer.BYTES)) {
+                    break;
+                }
+                record.flip();
+                crc.reset();
+                crc.update(record.array(), 0, length);
+                if ((int) crc.getValue() != record.getInt(length)) {
+                    break;
+                }
+                if (apply(record.limit(length), replay, covered)) {
+                    records++;
+                }
+                valid += Integer.BYTES * 2 + length;
+            }
+        } catch (BufferUnderflowException ex) {
+            logger.log(Level.WARNING, "Malformed journal record after {0} records", records);
+        }
+        if (valid < size) {
+            logger.log(Level.WARNING, "Discarding {0} bytes of torn journal tail", size - valid);
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+        end = valid;
+        return records;
+    }
+
+    /**
+     * Fills the buffer from the journal at the position, or returns false
+     * when the journal ends first.
+     */
+    private boolean read(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Empties the journal once its records are part of the persisted catalog.
+     * Numbering goes on from the last record.
+     */
+    synchronized void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+        pending = 0;
+        end = 0;
+    }
+
+    synchronized void sync() throws IOException {
+        if (pending > 0) {
+            channel.force(false);
+            pending = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (this) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private void syncPending() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error syncing the journal", ex);
+        }
+    }
+
+    private boolean apply(ByteBuffer body, Replay replay, long covered) {
+        byte op = body.get();
+        long number = body.getLong();
+        lsn = Math.max(lsn, number);
+        if (number <= covered) {
+            return false;
+        }
+        int id = body.getInt();
+        switch (op) {
+        case CREATE:
+            String type = getString(body);
+            String name = getString(body);
+            BigDecimal price = new BigDecimal(getString(body));
+            Rating rating = Rateable.convertInt(body.get());
+            long epochDay = body.getLong();
+            replay.create(id, type, name, price, rating, epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay));
+            break;
+        case REVIEW:
+            replay.review(id, Rateable.convertInt(body.get()), getString(body));
+            break;
+        case DELETE:
+            replay.delete(id);
+            break;
+        default:
+            logger.log(Level.WARNING, "Unknown journal record {0}", op);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts a record after the ones already framed in the buffer, with the
+     * next sequence number.
+     */
+    private ByteBuffer begin(byte op, int length) {
+        int needed = Integer.BYTES * 2 + 1 + Long.BYTES + length;
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(buffer.position() + needed) << 1);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        recordStart = buffer.position();
+        buffer.position(recordStart + Integer.BYTES);
+        buffer.put(op);
+        buffer.putLong(++lsn);
+        return buffer;
+    }
+
+    private void end() {
+        int length = buffer.position() - recordStart - Integer.BYTES;
+        buffer.putInt(recordStart, length);
+        crc.reset();
+        crc.update(buffer.array(), recordStart + Integer.BYTES, length);
+        buffer.putInt((int) crc.getValue());
+        pending++;
+    }
+
+    /**
+     * Writes the framed records and syncs them as the policy asks.
+     */
+    private void commit() throws IOException {
+        buffer.flip();
+        metrics.written(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        end = channel.position();
+        if (policy == SyncPolicy.ALWAYS || (policy == SyncPolicy.GROUP && pending >= groupSize)) {
+            channel.force(false);
+            pending = 0;
+        }
+    }
+
+    private static void putBytes(ByteBuffer body, byte[] bytes) {
+        body.putInt(bytes.length);
+        body.put(bytes);
+    }
+
+    private static String getString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+/**
+ * Told about every change of the {@link CatalogStore}, so structures derived
+ * from the catalog can follow it incrementally.
+ *
+ * @author Oscar
+ */
+interface CatalogListener {
+
+    /**
+     * A product was added, replaced or removed. {@code previous} is null for
+     * an added product and {@code current} is null for a removed one. Called
+     * while the stripe lock of the product is held.
+     */
+    void productChanged(Product previous, Product current);
+
+    /**
+     * The whole content of the store was replaced.
+     */
+    void catalogLoaded(CatalogView view);
+}
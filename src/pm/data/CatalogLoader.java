@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the product reports of the data folder. Every file is read once into
+ * a byte array and parsed in place, and the files are spread over the
+ * common fork join pool.
+ * In lazy mode only the header line and the ratings of the reviews are
+ * parsed, and the comments are read again from where the review section
+ * of the file starts when first needed.
+ *
+ * @author Oscar
+ */
+final class CatalogLoader {
+
+    private static final Logger logger = Logger.getLogger(CatalogLoader.class.getName());
+
+    private static final byte[] BLACK_STAR = "\u2605".getBytes(UTF_8);
+
+    private final Path dataFolder;
+    private final String fileGlob;
+    private final String noReview;
+    private final boolean lazy;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final ProductManagerMetrics metrics;
+
+    CatalogLoader(Path dataFolder, String fileNamePattern, String noReview, boolean lazy,
+            ProductManagerMetrics metrics) {
+        this.dataFolder = dataFolder;
+        this.metrics = metrics;
+        this.fileGlob = fileNamePattern.replace("{0}", "*");
+        this.noReview = noReview;
+        this.lazy = lazy;
+    }
+
+    List<Product> loadAll() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> data = Files.newDirectoryStream(dataFolder, fileGlob)) {
+            data.forEach(paths::add);
+        }
+        long start = System.nanoTime();
+        // comments repeated across reports are kept once for this load
+        Map<String, String> pool = new ConcurrentHashMap<>();
+        List<Product> loaded = paths.parallelStream().map(file -> load(file, pool)).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        double seconds = nanos / 1e9;
+        logger.log(Level.INFO, "Loaded {0} files ({1} bytes) in {2} ms: {3} files/s, {4} bytes/s",
+                new Object[] { files.sum(), bytes.sum(), nanos / 1_000_000, Math.round(files.sum() / seconds),
+                        Math.round(bytes.sum() / seconds) });
+        return loaded;
+    }
+
+    Product load(Path file) {
+        return load(file, new HashMap<>());
+    }
+
+    private Product load(Path file, Map<String, String> pool) {
+        try {
+            byte[] data = Files.readAllBytes(file);
+            files.increment();
+            bytes.add(data.length);
+            metrics.read(data.length);
+            return parse(idOf(file), data, lazy ? file : null, pool);
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Error loading product " + file, ex);
+            return null;
+        }
+    }
+
+    Product parse(int id, byte[] data) {
+        return parse(id, data, null, new HashMap<>());
+    }
+
+    /**
+     * Parses a product report. When the file is given the comments of the
+     * reviews are left in it.
+     */
+    private Product parse(int id, byte[] data, Path file, Map<String, String> pool) {
+        int end = lineEnd(data, 0);
+
+        int[] field = new int[2];
+        int pos = value(data, 0, end, field);
+        String name = new String(data, field[0], field[1] - field[0], UTF_8);
+        pos = value(data, pos, end, field);
+        String type = new String(data, field[0], field[1] - field[0], UTF_8);
+        pos = value(data, pos, end, field);
+        BigDecimal price = decimal(data, field[0], field[1]);
+        pos = value(data, pos, end, field);
+        Rating rating = stars(data, field[0], field[1]);
+
+        int line = next(data, end);
+        ReviewStore reviews = file == null ? reviews(data, line, pool) : lazyReviews(file, data, line);
+
+        if (type.equals("Drink")) {
+            return id > 0 ? new Drink(id, type, name, price, rating, reviews)
+                    : new Drink(type, name, price, rating, reviews);
+        } else if (type.equals("Food")) {
+            value(data, pos, end, field);
+            LocalDate bestBefore = date(data, field[0]);
+            return id > 0 ? new Food(id, type, name, price, rating, bestBefore, reviews)
+                    : new Food(type, name, price, rating, bestBefore, reviews);
+        }
+        return null;
+    }
+
+    private ReviewStore reviews(byte[] data, int line, Map<String, String> pool) {
+        List<Review> reviews = new ArrayList<>();
+        while (line < data.length) {
+            int lineEnd = lineEnd(data, line);
+            reviews.add(new Review(reviewRating(data, line, lineEnd),
+                    ReviewStore.pooled(pool, reviewComment(data, line, lineEnd))));
+            line = next(data, lineEnd);
+        }
+        return ReviewStore.of(reviews);
+    }
+
+    private ReviewStore lazyReviews(Path file, byte[] data, int start) {
+        byte[] ratings = new byte[16];
+        int count = 0;
+        for (int line = start; line < data.length;) {
+            int lineEnd = lineEnd(data, line);
+            if (count == ratings.length) {
+                ratings = Arrays.copyOf(ratings, count * 2);
+            }
+            ratings[count++] = (byte) reviewRating(data, line, lineEnd).ordinal();
+            line = next(data, lineEnd);
+        }
+        int reviews = count;
+        int length = data.length - start;
+        return ReviewStore.lazy(Arrays.copyOf(ratings, count), () -> comments(file, start, length, reviews));
+    }
+
+    /**
+     * Reads the comments of the review section of a report back from its
+     * file.
+     */
+    private String[] comments(Path file, long offset, int length, int count) throws IOException {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("The reviews of " + file + " changed on disk");
+                }
+            }
+        }
+        metrics.read(length);
+        String[] comments = new String[count];
+        int line = 0;
+        for (int i = 0; i < count; i++) {
+            if (line >= data.length) {
+                throw new IOException("The reviews of " + file + " changed on disk");
+            }
+            int lineEnd = lineEnd(data, line);
+            comments[i] = reviewComment(data, line, lineEnd);
+            line = next(data, lineEnd);
+        }
+        return comments;
+    }
+
+    private Rating reviewRating(byte[] data, int start, int end) {
+        int tab = tab(data, start, end);
+        return tab < 0 ? Rateable.DEFAULT_RATING : stars(data, indexOf(data, start, end, (byte) ':') + 1, tab);
+    }
+
+    private String reviewComment(byte[] data, int start, int end) {
+        int tab = tab(data, start, end);
+        return tab < 0 ? noReview : new String(data, tab + 1, end - tab - 1, UTF_8);
+    }
+
+    /**
+     * Position of the tab between the stars and the comment of a review
+     * line, or -1 when the line is not a well formed review.
+     */
+    private static int tab(byte[] data, int start, int end) {
+        int tab = indexOf(data, start, end, (byte) '\t');
+        int label = indexOf(data, start, end, (byte) ':');
+        if (tab < 0 || label < 0 || label > tab || tab + 1 >= end
+                || indexOf(data, tab + 1, end, (byte) '\t') >= 0) {
+            return -1;
+        }
+        return tab;
+    }
+
+    /**
+     * Finds the value of the next "Label: value" field of the header line,
+     * storing its bounds in {@code field}, and returns where the next field
+     * starts.
+     */
+    private static int value(byte[] data, int pos, int end, int[] field) {
+        int start = indexOf(data, pos, end, (byte) ':');
+        if (start < 0) {
+            throw new IllegalArgumentException("Malformed product line");
+        }
+        start++;
+        while (start < end && data[start] == ' ') {
+            start++;
+        }
+        int stop = start;
+        while (stop < end && !(data[stop] == ',' && stop + 1 < end && data[stop + 1] == ' ')) {
+            stop++;
+        }
+        field[0] = start;
+        field[1] = stop;
+        return stop;
+    }
+
+    private static BigDecimal decimal(byte[] data, int start, int end) {
+        long unscaled = 0;
+        int scale = -1;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                unscaled = unscaled * 10 + (b - '0');
+                digits = true;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && digits) {
+                scale = 0;
+            }
+        }
+        return BigDecimal.valueOf(unscaled, Math.max(scale, 0));
+    }
+
+    private static Rating stars(byte[] data, int start, int end) {
+        int count = 0;
+        for (int i = start; i + BLACK_STAR.length <= end; i++) {
+            if (data[i] == BLACK_STAR[0] && data[i + 1] == BLACK_STAR[1] && data[i + 2] == BLACK_STAR[2]) {
+                count++;
+                i += BLACK_STAR.length - 1;
+            }
+        }
+        return Rateable.convertInt(count);
+    }
+
+    private static LocalDate date(byte[] data, int start) {
+        return LocalDate.of(digits(data, start, 4), digits(data, start + 5, 2), digits(data, start + 8, 2));
+    }
+
+    private static int digits(byte[] data, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value * 10 + (data[i] - '0');
+        }
+        return value;
+    }
+
+    private static int lineEnd(byte[] data, int start) {
+        int end = indexOf(data, start, data.length, (byte) '\n');
+        end = end < 0 ? data.length : end;
+        return end > start && data[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static int next(byte[] data, int lineEnd) {
+        int i = lineEnd;
+        if (i < data.length && data[i] == '\r') {
+            i++;
+        }
+        return i < data.length ? i + 1 : i;
+    }
+
+    private static int indexOf(byte[] data, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int idOf(Path file) {
+        String name = file.getFileName().toString();
+        int id = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= '0' && c <= '9') {
+                id = id * 10 + (c - '0');
+            } else if (id > 0) {
+                break;
+            }
+        }
+        return id;
+    }
+}
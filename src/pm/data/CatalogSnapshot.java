@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary image of the whole catalog. It is written to a temporary
+ * file that is renamed over the previous snapshot, and read back through a
+ * direct buffer, so no mapping keeps the file open. Every product record
+ * carries its length and a CRC32, and a damaged record fails the read.
+ * The header holds the sequence number of the last journal record the
+ * snapshot includes, so replaying the journal skips those records.
+ * Read lazily, only the ratings of the reviews are kept and their comments
+ * are read again from the file when first needed. The file then stays open
+ * for as long as such reviews remain, so a checkpoint renaming a newer
+ * snapshot over it does not change what they read.
+ *
+ * @author Oscar
+ */
+final class CatalogSnapshot {
+
+    private static final int MAGIC = 0x504D5331;
+    private static final int VERSION = 3;
+    static final int BUFFER_SIZE = 1 << 20;
+    private static final byte DRINK = 0;
+    private static final byte FOOD = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+    private static final Cleaner cleaner = Cleaner.create();
+
+    /**
+     * Products read from a snapshot, with the sequence number of the last
+     * journal record they include.
+     */
+    static final class Image {
+
+        final List<Product> products;
+        final long lsn;
+
+        Image(List<Product> products, long lsn) {
+            this.products = products;
+            this.lsn = lsn;
+        }
+    }
+
+    /**
+     * Snapshot file open for the reviews whose comments were left in it,
+     * closed once no such review is reachable anymore.
+     */
+    private static final class Comments {
+
+        private final FileChannel channel;
+
+        private Comments(FileChannel channel) {
+            this.channel = channel;
+            cleaner.register(this, () -> close(channel));
+        }
+
+        private ReviewStore.Source source(long offset, int length, int count) {
+            return () -> read(offset, length, count);
+        }
+
+        private String[] read(long offset, int length, int count) throws IOException {
+            ByteBuffer section = ByteBuffer.allocate(length);
+            while (section.hasRemaining()) {
+                if (channel.read(section, offset + section.position()) < 0) {
+                    throw new EOFException("Truncated catalog snapshot");
+                }
+            }
+            section.flip();
+            String[] comments = new String[count];
+            for (int i = 0; i < count; i++) {
+                section.get();
+                comments[i] = getString(section);
+            }
+            return comments;
+        }
+
+        private static void close(FileChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // nothing left to read from it
+            }
+        }
+    }
+
+    private CatalogSnapshot() {
+    }
+
+    static void write(Path file, Collection<Product> products, long lsn) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, products, lsn);
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException ex) {
+            discard(temp, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Deletes the temporary file of a write that failed.
+     */
+    static void discard(Path temp, Exception cause) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ex) {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * Streams the snapshot of the products to the channel through one
+     * direct buffer.
+     */
+    static void write(WritableByteChannel channel, Collection<Product> products, long lsn) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(lsn).putInt(products.size());
+        for (Product product : products) {
+            buffer = write(channel, buffer, product);
+        }
+        drain(channel, buffer);
+    }
+
+    static Image read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Reads the snapshot, leaving the comments of the reviews in the file
+     * when {@code lazy} is set.
+     */
+    static Image read(Path file, boolean lazy) throws IOException {
+        Comments comments = lazy ? new Comments(FileChannel.open(file, StandardOpenOption.READ)) : null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0);
+            data = fill(channel, data, HEADER_BYTES);
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                throw new IOException("Not a catalog snapshot: " + file);
+            }
+            long lsn = data.getLong();
+            int count = data.getInt();
+            List<Product> products = new ArrayList<>(count);
+            // comments repeated across products are kept once for this load
+            Map<String, String> pool = new HashMap<>();
+            CRC32 crc = new CRC32();
+            long offset = HEADER_BYTES;
+            for (int i = 0; i < count; i++) {
+                data = fill(channel, data, Integer.BYTES);
+                int length = data.getInt();
+                if (length < 0 || length > channel.size()) {
+                    throw new IOException("Corrupted record " + i + " in the catalog snapshot " + file);
+                }
+                data = fill(channel, data, length + Integer.BYTES);
+                ByteBuffer body = data.slice().limit(length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != data.getInt(data.position() + length)) {
+                    throw new IOException("Corrupted record " + i + " in the catalog snapshot " + file);
+                }
+                products.add(read(body, pool, comments, offset + Integer.BYTES));
+                data.position(data.position() + length + Integer.BYTES);
+                offset += length + 2 * Integer.BYTES;
+            }
+            return new Image(products, lsn);
+        }
+    }
+
+    /**
+     * Buffer holding at least {@code needed} unread bytes of the channel,
+     * refilled from where the given one stops.
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer data, int needed) throws IOException {
+        if (data.remaining() >= needed) {
+            return data;
+        }
+        if (data.capacity() < needed) {
+            data = ByteBuffer.allocateDirect(needed).put(data);
+        } else {
+            data.compact();
+        }
+        while (data.position() < needed) {
+            if (channel.read(data) < 0) {
+                throw new EOFException("Truncated catalog snapshot");
+            }
+        }
+        return data.flip();
+    }
+
+    /**
+     * Writes one product as the length of its record, its fields and
+     * reviews, and the CRC32 of those.
+     */
+    private static ByteBuffer write(WritableByteChannel channel, ByteBuffer buffer, Product product)
+            throws IOException {
+        byte[] type = product.getType().getBytes(UTF_8);
+        byte[] name = product.getName().getBytes(UTF_8);
+        ReviewStore reviews = product.reviewStore();
+        int count = reviews.size();
+        byte[][] comments = new byte[count][];
+        int length = 35 + type.length + name.length;
+        for (int i = 0; i < count; i++) {
+            comments[i] = reviews.comment(i).getBytes(UTF_8);
+            length += 5 + comments[i].length;
+        }
+        buffer = ensure(channel, buffer, length + 2 * Integer.BYTES);
+        buffer.putInt(length);
+        int start = buffer.position();
+        BigDecimal price = product.getPrice();
+        buffer.putInt(product.getId());
+        buffer.put(product instanceof Food ? FOOD : DRINK);
+        buffer.put((byte) product.getRating().ordinal());
+        buffer.putLong(price.unscaledValue().longValueExact());
+        buffer.put((byte) price.scale());
+        buffer.putLong(product instanceof Food ? product.getBestBefore().toEpochDay() : 0);
+        putBytes(buffer, type);
+        putBytes(buffer, name);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) reviews.rating(i).ordinal());
+            putBytes(buffer, comments[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start).limit(start + length));
+        return buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Reads one product record starting at {@code offset} in the file,
+     * leaving its comments there when {@code comments} is given.
+     */
+    private static Product read(ByteBuffer data, Map<String, String> pool, Comments comments, long offset) {
+        int id = data.getInt();
+        byte kind = data.get();
+        Rating rating = Rateable.convertInt(data.get());
+        long unscaled = data.getLong();
+        BigDecimal price = BigDecimal.valueOf(unscaled, data.get());
+        long bestBefore = data.getLong();
+        String type = getString(data);
+        String name = getString(data);
+        int count = data.getInt();
+        Collection<Review> reviews;
+        if (comments != null) {
+            int start = data.position();
+            byte[] ratings = new byte[count];
+            for (int i = 0; i < count; i++) {
+                ratings[i] = (byte) Rateable.convertInt(data.get()).ordinal();
+                int skipped = data.getInt();
+                data.position(data.position() + skipped);
+            }
+            reviews = ReviewStore.lazy(ratings, comments.source(offset + start, data.position() - start, count));
+        } else {
+            List<Review> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Rating stars = Rateable.convertInt(data.get());
+                loaded.add(new Review(stars, ReviewStore.pooled(pool, getString(data))));
+            }
+            reviews = loaded;
+        }
+        return kind == FOOD
+                ? new Food(id, type, name, price, rating, LocalDate.ofEpochDay(bestBefore), reviews)
+                : new Drink(id, type, name, price, rating, reviews);
+    }
+
+    /**
+     * Buffer with room for {@code needed} more bytes, draining the given one
+     * first when it is short of space.
+     */
+    static ByteBuffer ensure(WritableByteChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        drain(channel, buffer);
+        return buffer.capacity() >= needed ? buffer : ByteBuffer.allocateDirect(needed);
+    }
+
+    static void drain(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
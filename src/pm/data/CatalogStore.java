@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent catalog ordered by product id. Writers of a product serialize
+ * on the stripe lock of its id. The ordered content is published as
+ * immutable {@link CatalogView} versions swapped in with compare and set,
+ * and lookups by id read the current version, so they never see a product
+ * the view does not hold. Names are not unique, so each maps to the set of
+ * ids holding it in a concurrent map whose hits are checked against the
+ * current version.
+ *
+ * @author Oscar
+ */
+final class CatalogStore {
+
+    private final AtomicReference<CatalogView> current = new AtomicReference<>(CatalogView.EMPTY);
+    private volatile Map<String, Set<Integer>> byName = new ConcurrentHashMap<>();
+    private final Lock[] stripes;
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+
+    CatalogStore() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    CatalogStore(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(concurrency - 1, 1)) << 1;
+        stripes = new Lock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Lock guarding the writes of the product with the given id.
+     */
+    Lock stripe(int id) {
+        return stripes[(id * 0x9E3779B9 >>> 16) & (stripes.length - 1)];
+    }
+
+    Product get(int id) {
+        return current.get().get(id);
+    }
+
+    /**
+     * Product with the name and the lowest id among those holding it.
+     */
+    Product get(String name) {
+        Set<Integer> ids = byName.get(name);
+        if (ids == null) {
+            return null;
+        }
+        CatalogView view = current.get();
+        for (int id : ids) {
+            Product product = view.get(id);
+            if (product != null && product.getName().equals(name)) {
+                return product;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds or replaces a product. The caller holds the stripe of its id.
+     */
+    void put(Product product) {
+        CatalogView view;
+        do {
+            view = current.get();
+        } while (!current.compareAndSet(view, view.with(product)));
+        Product previous = view.get(product.getId());
+        if (previous != null && !previous.getName().equals(product.getName())) {
+            unname(byName, previous.getName(), previous.getId());
+        }
+        name(byName, product.getName(), product.getId());
+        for (CatalogListener listener : listeners) {
+            listener.productChanged(previous, product);
+        }
+    }
+
+    /**
+     * Removes a product. The caller holds the stripe of its id.
+     */
+    Product remove(int id) {
+        CatalogView view;
+        do {
+            view = current.get();
+        } while (!current.compareAndSet(view, view.without(id)));
+        Product removed = view.get(id);
+        if (removed != null) {
+            unname(byName, removed.getName(), id);
+            for (CatalogListener listener : listeners) {
+                listener.productChanged(removed, null);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces the whole content of the store, used while loading the catalog.
+     */
+    void load(Collection<Product> loaded) {
+        List<Product> sorted = new ArrayList<>(loaded);
+        sorted.sort(Comparator.comparingInt(Product::getId));
+        for (int i = sorted.size() - 1; i > 0; i--) {
+            if (sorted.get(i - 1).getId() == sorted.get(i).getId()) {
+                sorted.remove(i - 1);
+            }
+        }
+        Map<String, Set<Integer>> names = new ConcurrentHashMap<>(sorted.size() * 2);
+        sorted.forEach(product -> name(names, product.getName(), product.getId()));
+        CatalogView view;
+        do {
+            view = current.get();
+        } while (!current.compareAndSet(view, view.replacedBy(sorted)));
+        byName = names;
+        CatalogView loadedView = current.get();
+        for (CatalogListener listener : listeners) {
+            listener.catalogLoaded(loadedView);
+        }
+    }
+
+    /**
+     * Adds the id to the ids holding the name. Both name updates run inside
+     * the compute of the map, so a set emptied by one never loses the id
+     * added by another.
+     */
+    private static void name(Map<String, Set<Integer>> names, String name, int id) {
+        names.compute(name, (key, ids) -> {
+            Set<Integer> named = ids == null ? new ConcurrentSkipListSet<>() : ids;
+            named.add(id);
+            return named;
+        });
+    }
+
+    private static void unname(Map<String, Set<Integer>> names, String name, int id) {
+        names.computeIfPresent(name, (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Current version of the catalog. It never changes once taken, writers
+     * publish new versions instead.
+     */
+    CatalogView snapshot() {
+        return current.get();
+    }
+
+    int size() {
+        return current.get().size();
+    }
+
+    int lastId() {
+        Product last = current.get().last();
+        return last == null ? 0 : last.getId();
+    }
+}
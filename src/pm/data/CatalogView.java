@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable point in time version of the catalog, ordered by product id.
+ * Versions are persistent AVL trees: a write copies only the path to the
+ * changed product and shares every other node with the previous version, so
+ * taking a view is free and iterating it never sees later writes. Products
+ * are not changed once published either: a review or a new rating puts a
+ * copy of the product holding a new {@link ReviewStore} in the next version,
+ * so reading the reviews of a view needs no lock.
+ * Each version also holds a copy on write table of its products by id,
+ * copied a chunk at a time, so a lookup by id takes constant time.
+ *
+ * @author Oscar
+ */
+public final class CatalogView extends AbstractSet<Product> {
+
+    static final CatalogView EMPTY = new CatalogView(null, IdTable.EMPTY, 0, 0);
+
+    private final Node root;
+    private final IdTable ids;
+    private final int size;
+    private final long version;
+
+    private CatalogView(Node root, IdTable ids, int size, long version) {
+        this.root = root;
+        this.ids = ids;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * Number of writes applied to the catalog up to this view.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Product get(int id) {
+        return id >= 0 ? ids.get(id) : find(id);
+    }
+
+    private Product find(int id) {
+        Node node = root;
+        while (node != null) {
+            if (id < node.id) {
+                node = node.left;
+            } else if (id > node.id) {
+                node = node.right;
+            } else {
+                return node.product;
+            }
+        }
+        return null;
+    }
+
+    public Product last() {
+        Node node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.product;
+    }
+
+    /**
+     * Height of the tree, which balancing keeps below 1.45 log2(size + 2).
+     */
+    int height() {
+        return height(root);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Product && o.equals(get(((Product) o).getId()));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Product> iterator() {
+        return new Iterator<>() {
+
+            private final Deque<Node> path = new ArrayDeque<>();
+
+            {
+                descend(root);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Product next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = path.pop();
+                descend(node.right);
+                return node.product;
+            }
+
+            private void descend(Node node) {
+                for (; node != null; node = node.left) {
+                    path.push(node);
+                }
+            }
+        };
+    }
+
+    CatalogView with(Product product) {
+        int id = product.getId();
+        boolean present = get(id) != null;
+        return new CatalogView(put(root, product), ids.with(id, product), present ? size : size + 1, version + 1);
+    }
+
+    CatalogView without(int id) {
+        if (get(id) == null) {
+            return this;
+        }
+        return new CatalogView(remove(root, id), ids.with(id, null), size - 1, version + 1);
+    }
+
+    /**
+     * Builds a balanced view in one pass over the products, which must be
+     * sorted by id without duplicates.
+     */
+    CatalogView replacedBy(List<Product> sorted) {
+        return new CatalogView(build(sorted, 0, sorted.size()), IdTable.of(sorted), sorted.size(), version + 1);
+    }
+
+    private static Node build(List<Product> sorted, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node(sorted.get(middle), build(sorted, from, middle), build(sorted, middle + 1, to));
+    }
+
+    private static Node put(Node node, Product product) {
+        if (node == null) {
+            return new Node(product, null, null);
+        }
+        int id = product.getId();
+        if (id < node.id) {
+            return balance(node.product, put(node.left, product), node.right);
+        } else if (id > node.id) {
+            return balance(node.product, node.left, put(node.right, product));
+        }
+        return new Node(product, node.left, node.right);
+    }
+
+    private static Node remove(Node node, int id) {
+        if (id < node.id) {
+            return balance(node.product, remove(node.left, id), node.right);
+        } else if (id > node.id) {
+            return balance(node.product, node.left, remove(node.right, id));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.product, node.left, remove(node.right, successor.id));
+    }
+
+    private static Node balance(Product product, Node left, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left.left, left.product, left.right);
+            }
+            return rotateRight(left, product, right);
+        }
+        if (diff < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right.left, right.product, right.right);
+            }
+            return rotateLeft(left, product, right);
+        }
+        return new Node(product, left, right);
+    }
+
+    private static Node rotateRight(Node left, Product product, Node right) {
+        return new Node(left.product, left.left, new Node(product, left.right, right));
+    }
+
+    private static Node rotateLeft(Node left, Product product, Node right) {
+        return new Node(right.product, new Node(product, left, right.left), right.right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Products by id in chunks of slots. A write copies the table of chunks
+     * and the chunk of the id, sharing every other chunk with the previous
+     * version. Negative ids are left to the tree.
+     */
+    private static final class IdTable {
+
+        private static final int SHIFT = 10;
+        private static final int MASK = (1 << SHIFT) - 1;
+        private static final IdTable EMPTY = new IdTable(new Product[0][]);
+
+        private final Product[][] chunks;
+
+        private IdTable(Product[][] chunks) {
+            this.chunks = chunks;
+        }
+
+        private static IdTable of(List<Product> sorted) {
+            int last = sorted.isEmpty() ? -1 : sorted.get(sorted.size() - 1).getId();
+            if (last < 0) {
+                return EMPTY;
+            }
+            Product[][] chunks = new Product[(last >>> SHIFT) + 1][];
+            for (Product product : sorted) {
+                int id = product.getId();
+                if (id >= 0) {
+                    Product[] chunk = chunks[id >>> SHIFT];
+                    if (chunk == null) {
+                        chunk = chunks[id >>> SHIFT] = new Product[MASK + 1];
+                    }
+                    chunk[id & MASK] = product;
+                }
+            }
+            return new IdTable(chunks);
+        }
+
+        private Product get(int id) {
+            int index = id >>> SHIFT;
+            if (index >= chunks.length) {
+                return null;
+            }
+            Product[] chunk = chunks[index];
+            return chunk == null ? null : chunk[id & MASK];
+        }
+
+        private IdTable with(int id, Product product) {
+            if (id < 0) {
+                return this;
+            }
+            int index = id >>> SHIFT;
+            if (product == null && index >= chunks.length) {
+                return this;
+            }
+            Product[][] copy = Arrays.copyOf(chunks, Math.max(chunks.length, index + 1));
+            Product[] chunk = copy[index] == null ? new Product[MASK + 1] : copy[index].clone();
+            chunk[id & MASK] = product;
+            copy[index] = chunk;
+            return new IdTable(copy);
+        }
+    }
+
+    private static final class Node {
+
+        private final int id;
+        private final Product product;
+        private final Node left;
+        private final Node right;
+        private final int height;
+
+        private Node(Product product, Node left, Node right) {
+            this.id = product.getId();
+            this.product = product;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Discount totals per rating in minor units, kept up to date as the catalog
+ * changes. Drinks are summed apart from food, and food by best before date,
+ * so the totals in force only depend on the drink happy hour and the
+ * current day. Every total is updated on its own atomically, so writers of
+ * different products never wait for each other.
+ * A scheduler flips the window and the day exactly at the boundaries of the
+ * rules: 17:30 and 18:30 for drinks and midnight for food. It reads the
+ * clock again at least every minute, so a clock change or a daylight saving
+ * shift delays a flip by a minute at most.
+ *
+ * @author Oscar
+ */
+final class DiscountTotals implements CatalogListener {
+
+    private static final Duration MAX_TICK = Duration.ofMinutes(1);
+
+    private final Clock clock;
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(Rating.values().length);
+    private final AtomicLongArray drinks = new AtomicLongArray(Rating.values().length);
+    private final Map<Rating, Map<LocalDate, Long>> food = new EnumMap<>(Rating.class);
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean drinkWindow;
+    private volatile LocalDate today;
+
+    DiscountTotals(Clock clock) {
+        this.clock = clock;
+        for (Rating rating : Rating.values()) {
+            food.put(rating, new ConcurrentHashMap<>());
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "discount-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tick();
+    }
+
+    /**
+     * Discount totals in force now for every rating present in the catalog.
+     */
+    Map<Rating, Money> current() {
+        Map<Rating, Money> totals = new EnumMap<>(Rating.class);
+        LocalDate day = today;
+        boolean window = drinkWindow;
+        for (Rating rating : Rating.values()) {
+            if (counts.get(rating.ordinal()) > 0) {
+                long total = food.get(rating).getOrDefault(day, 0L);
+                totals.put(rating, Money.ofMinor(window ? total + drinks.get(rating.ordinal()) : total));
+            }
+        }
+        return totals;
+    }
+
+    @Override
+    public void productChanged(Product previous, Product current) {
+        if (previous != null) {
+            count(previous, -1);
+        }
+        if (current != null) {
+            count(current, 1);
+        }
+    }
+
+    /**
+     * Counts the loaded catalog again. Loading leaves no other writer.
+     */
+    @Override
+    public void catalogLoaded(CatalogView view) {
+        for (Rating rating : Rating.values()) {
+            counts.set(rating.ordinal(), 0);
+            drinks.set(rating.ordinal(), 0);
+            food.get(rating).clear();
+        }
+        view.forEach(product -> count(product, 1));
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void count(Product product, int sign) {
+        int slot = product.getRating().ordinal();
+        long discount = sign * product.getBaseDiscountMinor();
+        counts.addAndGet(slot, sign);
+        if (product instanceof Food) {
+            food.get(product.getRating()).merge(product.getBestBefore(), discount,
+                    (a, b) -> a + b == 0 ? null : a + b);
+        } else if (product instanceof Drink) {
+            drinks.addAndGet(slot, discount);
+        }
+    }
+
+    /**
+     * Reads the clock, updates the window and the day, and schedules itself
+     * for the next boundary, or sooner so it reads the clock again.
+     */
+    private void tick() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        LocalTime time = now.toLocalTime();
+        LocalDate day = now.toLocalDate();
+        today = day;
+        drinkWindow = Drink.isDiscountTime(time);
+
+        ZonedDateTime next;
+        if (time.isBefore(Drink.DISCOUNT_START)) {
+            next = day.atTime(Drink.DISCOUNT_START).atZone(now.getZone());
+        } else if (time.isBefore(Drink.DISCOUNT_END)) {
+            next = day.atTime(Drink.DISCOUNT_END).atZone(now.getZone());
+        } else {
+            next = day.plusDays(1).atStartOfDay(now.getZone());
+        }
+        Duration delay = Duration.between(now, next);
+        if (delay.compareTo(MAX_TICK) > 0) {
+            delay = MAX_TICK;
+        }
+        scheduler.schedule(this::tick, Math.max(delay.toNanos(), 1), TimeUnit.NANOSECONDS);
+    }
+}
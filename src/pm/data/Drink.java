@@ -18,7 +18,7 @@ package pm.data;
 
 import java.math.BigDecimal;
 import java.time.LocalTime;
-import java.util.Set;
+import java.util.Collection;
 
 /**
  *
@@ -26,25 +26,44 @@ import java.util.Set;
  */
 public final class Drink extends Product {
 
+    static final LocalTime DISCOUNT_START = LocalTime.of(17, 30);
+    static final LocalTime DISCOUNT_END = LocalTime.of(18, 30);
 
     Drink(String type, String name, BigDecimal price, Rating rating) {
         super(type,  name, price, rating);
     }
-    Drink(String type, String name, BigDecimal price, Rating rating, Set<Review> reviews) {
+    Drink(String type, String name, BigDecimal price, Rating rating, Collection<Review> reviews) {
         super(type,  name, price, rating, reviews);
     }
+    Drink(int id, String type, String name, BigDecimal price, Rating rating) {
+        super(id, type,  name, price, rating);
+    }
+    Drink(int id, String type, String name, BigDecimal price, Rating rating, Collection<Review> reviews) {
+        super(id, type,  name, price, rating, reviews);
+    }
+    Drink(OffHeapCatalog records, int slot, Rating rating) {
+        super(records, slot, rating);
+    }
 
-    @Override
-    public BigDecimal getDiscount() {
-        LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17, 30)) && now.isBefore(LocalTime.of(18, 30)))
-                ? super.getDiscount() : BigDecimal.ZERO;
+    /**
+     * Whether drinks are discounted at the time, from 17:30 included to
+     * 18:30 excluded.
+     */
+    static boolean isDiscountTime(LocalTime time) {
+        return !time.isBefore(DISCOUNT_START) && time.isBefore(DISCOUNT_END);
+    }
 
+    @Override
+    long getDiscountMinor() {
+        return isDiscountTime(LocalTime.now()) ? super.getDiscountMinor() : 0;
     }
 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Drink(getType(), getName(), getPrice(), newRating);
+        Drink drink = records() != null ? new Drink(records(), slot(), newRating)
+                : new Drink(getId(), getType(), getName(), getPrice(), newRating);
+        drink.inherit(this);
+        return drink;
     }
     @Override
     public String toString() {
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+/**
+ * Layout of a whole catalog export.
+ *
+ * @author Oscar
+ */
+public enum ExportFormat {
+
+    /**
+     * One line per product and one per review under a single header, with
+     * the fields quoted as in RFC 4180 when needed.
+     */
+    CSV,
+
+    /**
+     * The binary format of the catalog snapshot.
+     */
+    BINARY
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams a feed of one entry per line into the catalog in three stages.
+ * The calling thread reads the feed in chunks of lines, the chunks are
+ * parsed in parallel on the executor, and the parsed chunks are handed to
+ * the sink in feed order, one batch per chunk. At most a fixed number of
+ * chunks are in flight, so memory does not grow with the feed.
+ *
+ * @author Oscar
+ */
+final class FeedImporter<T> {
+
+    /**
+     * Turns one line of the feed into an entry. It is called from several
+     * threads at once.
+     */
+    @FunctionalInterface
+    interface Parser<T> {
+
+        T parse(String line) throws ParseException;
+    }
+
+    /**
+     * Applies a batch of entries, reporting the rejected ones by their
+     * position in the batch.
+     */
+    @FunctionalInterface
+    interface Sink<T> {
+
+        BatchResult insert(List<T> entries);
+    }
+
+    /**
+     * Parsed entries of a chunk with the lines they come from.
+     */
+    private static final class Chunk<T> {
+
+        private final List<T> entries;
+        private final int[] lines;
+        private final List<BatchResult.Failure> failures = new ArrayList<>();
+
+        private Chunk(int size) {
+            entries = new ArrayList<>(size);
+            lines = new int[size];
+        }
+
+        private void add(int line, T entry) {
+            lines[entries.size()] = line;
+            entries.add(entry);
+        }
+    }
+
+    private final Parser<T> parser;
+    private final Sink<T> sink;
+    private final Executor executor;
+    private final int chunkLines;
+    private final int inFlight;
+    private final int maxFailures;
+
+    FeedImporter(Parser<T> parser, Sink<T> sink, Executor executor, int chunkLines, int inFlight, int maxFailures) {
+        this.parser = parser;
+        this.sink = sink;
+        this.executor = executor;
+        this.chunkLines = Math.max(chunkLines, 1);
+        this.inFlight = Math.max(inFlight, 1);
+        this.maxFailures = maxFailures;
+    }
+
+    ImportReport run(BufferedReader in) throws IOException {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport(maxFailures);
+        Deque<CompletableFuture<Chunk<T>>> pending = new ArrayDeque<>();
+        List<String> lines = new ArrayList<>(chunkLines);
+        int first = 1;
+        int line = 0;
+        try {
+            for (String text = in.readLine(); text != null; text = in.readLine()) {
+                line++;
+                lines.add(text);
+                if (lines.size() == chunkLines) {
+                    submit(pending, first, lines, report);
+                    lines = new ArrayList<>(chunkLines);
+                    first = line + 1;
+                }
+            }
+            if (!lines.isEmpty()) {
+                submit(pending, first, lines, report);
+            }
+            while (!pending.isEmpty()) {
+                insert(pending.poll().join(), report);
+            }
+        } finally {
+            // chunks still parsing when reading failed are dropped
+            pending.forEach(chunk -> chunk.cancel(false));
+        }
+        report.finish(line, System.nanoTime() - start);
+        return report;
+    }
+
+    private void submit(Deque<CompletableFuture<Chunk<T>>> pending, int first, List<String> lines,
+            ImportReport report) {
+        if (pending.size() >= inFlight) {
+            insert(pending.poll().join(), report);
+        }
+        pending.add(CompletableFuture.supplyAsync(() -> parse(first, lines), executor));
+    }
+
+    private Chunk<T> parse(int first, List<String> lines) {
+        Chunk<T> chunk = new Chunk<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String text = lines.get(i);
+            if (text.isBlank()) {
+                continue;
+            }
+            try {
+                chunk.add(first + i, parser.parse(text));
+            } catch (ParseException | RuntimeException ex) {
+                chunk.failures.add(new BatchResult.Failure(first + i, String.valueOf(ex.getMessage())));
+            }
+        }
+        return chunk;
+    }
+
+    private void insert(Chunk<T> chunk, ImportReport report) {
+        chunk.failures.forEach(failure -> report.failed(failure.getIndex(), failure.getMessage()));
+        if (chunk.entries.isEmpty()) {
+            return;
+        }
+        BatchResult result = sink.insert(chunk.entries);
+        report.batch();
+        report.applied(result.getApplied());
+        result.getFailures().forEach(failure -> report.failed(chunk.lines[failure.getIndex()], failure.getMessage()));
+    }
+}
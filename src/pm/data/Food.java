@@ -18,7 +18,7 @@ package pm.data;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.Set;
+import java.util.Collection;
 
 /**
  *
@@ -33,30 +33,43 @@ public final class Food extends Product{
         this.bestBefore = bestBefore;
 
     }
-    Food(String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore, Set<Review> reviews){
+    Food(String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore, Collection<Review> reviews){
         super(type, name, price, rating, reviews);
         this.bestBefore = bestBefore;
     }
-    
+    Food(int id, String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore){
+        super(id, type, name, price, rating);
+        this.bestBefore = bestBefore;
+    }
+    Food(int id, String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore, Collection<Review> reviews){
+        super(id, type, name, price, rating, reviews);
+        this.bestBefore = bestBefore;
+    }
+    Food(OffHeapCatalog records, int slot, Rating rating) {
+        super(records, slot, rating);
+    }
 
     @Override
     public LocalDate getBestBefore(){
-        return this.bestBefore;
+        return bestBefore != null ? bestBefore : records().bestBefore(slot());
     }
     
     @Override
-    public BigDecimal getDiscount() {
-        return (bestBefore.equals(LocalDate.now())) ? super.getDiscount() : BigDecimal.ZERO;
+    long getDiscountMinor() {
+        return (getBestBefore().equals(LocalDate.now())) ? super.getDiscountMinor() : 0;
     }
     @Override
     public String toString() {
-        return  super.toString() + ", " + bestBefore + "\n" + printReviews();
+        return  super.toString() + ", " + getBestBefore() + "\n" + printReviews();
     }
 
     @Override
     public Product applyRating(Rating newRating) {
-        return new Food(getType(), getName(), getPrice(), newRating, bestBefore);
-        }
+        Food food = records() != null ? new Food(records(), slot(), newRating)
+                : new Food(getId(), getType(), getName(), getPrice(), newRating, bestBefore);
+        food.inherit(this);
+        return food;
+    }
     
     
 }
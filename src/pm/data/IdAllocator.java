@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out product ids with a single atomic increment. Ids are reserved in
+ * blocks whose upper bound, the high-water mark, is written to a file before
+ * any id of the block is used, so after a restart allocation resumes past
+ * every id that may have been handed out without listing the data folder.
+ *
+ * @author Oscar
+ */
+final class IdAllocator {
+
+    private static final Logger logger = Logger.getLogger(IdAllocator.class.getName());
+
+    private final AtomicInteger last = new AtomicInteger();
+    private volatile int reserved = Integer.MAX_VALUE;
+    private Path file;
+    private int block;
+
+    /**
+     * Starts persisting the high-water mark in the file, resuming after the
+     * mark already stored there.
+     */
+    synchronized void open(Path file, int block) throws IOException {
+        this.file = file;
+        this.block = Math.max(block, 1);
+        if (Files.exists(file)) {
+            advanceTo(Integer.parseInt(Files.readString(file, StandardCharsets.UTF_8).trim()));
+        }
+        reserved = last.get();
+    }
+
+    int next() {
+        int id = last.incrementAndGet();
+        if (id > reserved) {
+            reserve(id);
+        }
+        return id;
+    }
+
+    /**
+     * Makes sure ids handed out from now on are greater than {@code id}.
+     */
+    void advanceTo(int id) {
+        int current;
+        while ((current = last.get()) < id && !last.compareAndSet(current, id)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private synchronized void reserve(int id) {
+        if (id <= reserved) {
+            return;
+        }
+        int mark = Math.max(id, last.get()) + block;
+        try {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temporary, Integer.toString(mark), StandardCharsets.UTF_8);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error saving the id high-water mark {0}", ex.getMessage());
+        }
+        reserved = mark;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a feed import: how many lines were read and applied, the
+ * rejected lines, and how fast it went. Only the first failures are kept
+ * with their messages, the rest are just counted, so the report stays
+ * small whatever the size of the feed.
+ *
+ * @author Oscar
+ */
+public class ImportReport {
+
+    private final int maxFailures;
+    private final List<BatchResult.Failure> failures = new ArrayList<>();
+    private long lines;
+    private long applied;
+    private long failed;
+    private long batches;
+    private long nanos;
+
+    ImportReport(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    void applied(long count) {
+        applied += count;
+    }
+
+    void failed(int line, String message) {
+        failed++;
+        if (failures.size() < maxFailures) {
+            failures.add(new BatchResult.Failure(line, message));
+        }
+    }
+
+    void batch() {
+        batches++;
+    }
+
+    void finish(long lines, long nanos) {
+        this.lines = lines;
+        this.nanos = Math.max(nanos, 1);
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * The first rejected lines, the index of each failure being its line
+     * number in the feed, starting at 1.
+     */
+    public List<BatchResult.Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getElapsedMillis() {
+        return nanos / 1_000_000;
+    }
+
+    public long getLinesPerSecond() {
+        return Math.round(lines / (nanos / 1e9));
+    }
+
+    @Override
+    public String toString() {
+        return "lines=" + lines + ", applied=" + applied + ", failed=" + failed + ", batches=" + batches
+                + ", millis=" + getElapsedMillis() + ", lines/s=" + getLinesPerSecond();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies journal records on top of the catalog loaded from a snapshot.
+ * The journal only hands over the records numbered after the snapshot, so
+ * each record is applied exactly once and two identical reviews stay two
+ * reviews. It runs while the catalog is being loaded, before any other
+ * writer.
+ *
+ * @author Oscar
+ */
+final class JournalReplay implements CatalogJournal.Replay {
+
+    private final CatalogStore store;
+    private final String noReview;
+    private final UnaryOperator<Product> adopt;
+    private final Set<Integer> deleted;
+
+    /**
+     * @param noReview the comment of the review standing for "no reviews"
+     * @param adopt turns a replayed product into the form the store keeps
+     * @param deleted collects the ids of the products deleted by the journal
+     */
+    JournalReplay(CatalogStore store, String noReview, UnaryOperator<Product> adopt, Set<Integer> deleted) {
+        this.store = store;
+        this.noReview = noReview;
+        this.adopt = adopt;
+        this.deleted = deleted;
+    }
+
+    @Override
+    public void create(int id, String type, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
+        Product product = bestBefore == null ? new Drink(id, type, name, price, rating)
+                : new Food(id, type, name, price, rating, bestBefore);
+        store.put(adopt.apply(product));
+        Product.ids.advanceTo(id);
+    }
+
+    @Override
+    public void review(int id, Rating rating, String comments) {
+        Product product = store.get(id);
+        if (product != null) {
+            store.put(product.withReviews(List.of(new Review(rating, comments)), noReview));
+        }
+    }
+
+    @Override
+    public void delete(int id) {
+        store.remove(id);
+        deleted.add(id);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+/**
+ * Latency figures of one operation at the time they were read, in
+ * microseconds.
+ *
+ * @author Oscar
+ */
+public final class LatencySnapshot {
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double p999;
+    private final double max;
+
+    LatencySnapshot(LatencyHistogram histogram) {
+        this.count = histogram.count();
+        this.mean = histogram.mean() / 1_000;
+        this.p50 = histogram.percentile(0.5) / 1_000d;
+        this.p90 = histogram.percentile(0.9) / 1_000d;
+        this.p99 = histogram.percentile(0.99) / 1_000d;
+        this.p999 = histogram.percentile(0.999) / 1_000d;
+        this.max = histogram.max() / 1_000d;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return mean;
+    }
+
+    public double getP50Micros() {
+        return p50;
+    }
+
+    public double getP90Micros() {
+        return p90;
+    }
+
+    public double getP99Micros() {
+        return p99;
+    }
+
+    public double getP999Micros() {
+        return p999;
+    }
+
+    public double getMaxMicros() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99
+                + ", p999=" + p999 + ", max=" + max;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message pattern compiled once into literal text and argument slots. It
+ * understands the subset of {@link java.text.MessageFormat} used by the
+ * resource bundles, plain {@code {n}} arguments and quoting, and is
+ * immutable, so one instance can render and parse from any number of
+ * threads.
+ *
+ * @author Oscar
+ */
+final class MessageTemplate {
+
+    private final String[] literals;
+    private final int[] arguments;
+    private final int length;
+
+    private MessageTemplate(String[] literals, int[] arguments) {
+        this.literals = literals;
+        this.arguments = arguments;
+        int total = 0;
+        for (String literal : literals) {
+            total += literal.length();
+        }
+        this.length = total;
+    }
+
+    static MessageTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == '{' && !quoted) {
+                int close = pattern.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unmatched braces in the pattern " + pattern);
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                arguments.add(Integer.parseInt(pattern.substring(i + 1, close).trim()));
+                i = close;
+            } else {
+                literal.append(c);
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(new String[0]),
+                arguments.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Whether the pattern refers to the argument, so callers can skip
+     * computing arguments nobody will see.
+     */
+    boolean uses(int argument) {
+        for (int a : arguments) {
+            if (a == argument) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int literalLength() {
+        return length;
+    }
+
+    StringBuilder render(StringBuilder out, Object... values) {
+        for (int i = 0; i < arguments.length; i++) {
+            out.append(literals[i]);
+            int argument = arguments[i];
+            if (argument < values.length) {
+                out.append(values[argument]);
+            } else {
+                out.append('{').append(argument).append('}');
+            }
+        }
+        return out.append(literals[arguments.length]);
+    }
+
+    /**
+     * Splits text rendered with the pattern back into its arguments the way
+     * {@link java.text.MessageFormat#parse(String)} does: every argument runs
+     * up to the next occurrence of the literal that follows it, and the last
+     * one to the end of the text when no literal follows.
+     */
+    String[] parse(String text) throws ParseException {
+        int count = 0;
+        for (int argument : arguments) {
+            count = Math.max(count, argument + 1);
+        }
+        String[] values = new String[count];
+        if (!text.startsWith(literals[0])) {
+            throw new ParseException("Unparseable text: " + text, 0);
+        }
+        int pos = literals[0].length();
+        for (int i = 0; i < arguments.length; i++) {
+            String next = literals[i + 1];
+            int end = next.isEmpty() ? (i + 1 == arguments.length ? text.length() : pos) : text.indexOf(next, pos);
+            if (end < 0) {
+                throw new ParseException("Unparseable text: " + text, pos);
+            }
+            values[arguments[i]] = text.substring(pos, end);
+            pos = end + next.length();
+        }
+        return values;
+    }
+
+    String format(Object... values) {
+        return render(new StringBuilder(length + 16 * arguments.length), values).toString();
+    }
+}
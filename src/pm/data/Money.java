@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amount of money held as a whole number of minor units, hundredths of the
+ * currency. Prices and discounts are kept as plain {@code long} minor units
+ * inside the catalog, so adding them up is exact and allocates nothing;
+ * {@link BigDecimal} only shows up where amounts enter or leave the API.
+ *
+ * @author Oscar
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final int SCALE = 2;
+    public static final Money ZERO = new Money(0);
+
+    private final long minor;
+
+    private Money(long minor) {
+        this.minor = minor;
+    }
+
+    public static Money ofMinor(long minor) {
+        return minor == 0 ? ZERO : new Money(minor);
+    }
+
+    /**
+     * Money of the amount, which must not have more than two decimals.
+     *
+     * @throws IllegalArgumentException when it has
+     */
+    public static Money of(BigDecimal amount) {
+        return ofMinor(minor(amount));
+    }
+
+    public long getMinor() {
+        return minor;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return decimal(minor);
+    }
+
+    public Money plus(Money other) {
+        return ofMinor(Math.addExact(minor, other.minor));
+    }
+
+    /**
+     * Minor units of the amount, refusing one with more than two decimals
+     * rather than rounding it away.
+     *
+     * @throws IllegalArgumentException when it has
+     */
+    static long minor(BigDecimal amount) {
+        try {
+            return minor(amount, RoundingMode.UNNECESSARY);
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Amount " + amount.toPlainString() + " has more than " + SCALE
+                    + " decimals or is out of range");
+        }
+    }
+
+    /**
+     * Minor units of the amount, rounded with {@code mode} when it has more
+     * than two decimals.
+     */
+    static long minor(BigDecimal amount, RoundingMode mode) {
+        return amount.setScale(SCALE, mode).unscaledValue().longValueExact();
+    }
+
+    static BigDecimal decimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    /**
+     * Amount in units of the currency, for number formats. The double is
+     * the one nearest to the amount, which formats back to the exact cents
+     * for anything below 2^53 minor units.
+     */
+    static double units(long minor) {
+        return minor / 100.0;
+    }
+
+    /**
+     * The given percentage of an amount in minor units, rounded half up.
+     */
+    static long percent(long minor, int percent) {
+        long hundredths = Math.multiplyExact(minor, percent);
+        return (hundredths + (hundredths < 0 ? -50 : 50)) / 100;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minor, other.minor);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Money && ((Money) obj).minor == minor;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minor);
+    }
+
+    @Override
+    public String toString() {
+        return decimal(minor).toPlainString();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fixed layout product records in direct memory. Each record holds the
+ * fields of a product that never change, its id, kind, price, best before
+ * date, type and name, with the price in minor units, and {@link Food} and {@link Drink} flyweights read
+ * them on access. The name is decoded once, when a flyweight is first asked
+ * for it, and kept by the flyweight and its rerated copies. Records are append only: a flyweight stays valid for as
+ * long as the catalog is reachable, and the records of deleted products are
+ * reclaimed when the catalog is loaded again.
+ *
+ * @author Oscar
+ */
+final class OffHeapCatalog {
+
+    private static final int RECORD = 40;
+    private static final int RECORDS_PER_CHUNK = 1 << 16;
+    private static final int NAME_CHUNK = 1 << 22;
+    private static final byte DRINK = 0;
+    private static final byte FOOD = 1;
+
+    private static final int ID = 0;
+    private static final int KIND = 4;
+    private static final int TYPE = 6;
+    private static final int NAME_LENGTH = 8;
+    private static final int PRICE = 12;
+    private static final int BEST_BEFORE = 20;
+    private static final int NAME = 28;
+
+    private volatile ByteBuffer[] records = new ByteBuffer[0];
+    private volatile ByteBuffer[] names = new ByteBuffer[0];
+    private volatile String[] types = new String[0];
+    private int size;
+    private long nameEnd;
+
+    /**
+     * Copies the products into records and returns their flyweights, with
+     * the same ratings and reviews.
+     */
+    List<Product> adoptAll(Collection<Product> products) {
+        List<Product> adopted = new ArrayList<>(products.size());
+        for (Product product : products) {
+            adopted.add(adopt(product));
+        }
+        return adopted;
+    }
+
+    Product adopt(Product product) {
+        if (product.isRecordOf(this)) {
+            return product;
+        }
+        int slot = append(product);
+        Product flyweight = product instanceof Food
+                ? new Food(this, slot, product.getRating())
+                : new Drink(this, slot, product.getRating());
+        flyweight.inherit(product);
+        return flyweight;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int id(int slot) {
+        return record(slot).getInt(offset(slot) + ID);
+    }
+
+    boolean isFood(int slot) {
+        return record(slot).get(offset(slot) + KIND) == FOOD;
+    }
+
+    String type(int slot) {
+        return types[record(slot).getShort(offset(slot) + TYPE)];
+    }
+
+    String name(int slot) {
+        ByteBuffer record = record(slot);
+        int at = offset(slot);
+        long address = record.getLong(at + NAME);
+        byte[] bytes = new byte[record.getInt(at + NAME_LENGTH)];
+        ByteBuffer chunk = names[(int) (address / NAME_CHUNK)];
+        int from = (int) (address % NAME_CHUNK);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk.get(from + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    long priceMinor(int slot) {
+        return record(slot).getLong(offset(slot) + PRICE);
+    }
+
+    LocalDate bestBefore(int slot) {
+        return LocalDate.ofEpochDay(record(slot).getLong(offset(slot) + BEST_BEFORE));
+    }
+
+    private synchronized int append(Product product) {
+        int slot = size;
+        int chunk = slot / RECORDS_PER_CHUNK;
+        if (chunk == records.length) {
+            ByteBuffer[] grown = Arrays.copyOf(records, chunk + 1);
+            grown[chunk] = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD);
+            records = grown;
+        }
+        byte[] name = product.getName().getBytes(UTF_8);
+        long address = appendName(name);
+        ByteBuffer record = records[chunk];
+        int at = offset(slot);
+        record.putInt(at + ID, product.getId());
+        record.put(at + KIND, product instanceof Food ? FOOD : DRINK);
+        record.putShort(at + TYPE, typeIndex(product.getType()));
+        record.putInt(at + NAME_LENGTH, name.length);
+        record.putLong(at + PRICE, product.getPriceMinor());
+        record.putLong(at + BEST_BEFORE, product instanceof Food ? product.getBestBefore().toEpochDay() : 0);
+        record.putLong(at + NAME, address);
+        size = slot + 1;
+        return slot;
+    }
+
+    private long appendName(byte[] name) {
+        if (name.length > NAME_CHUNK) {
+            throw new IllegalArgumentException("Product name too long: " + name.length + " bytes");
+        }
+        int chunk = (int) (nameEnd / NAME_CHUNK);
+        if (nameEnd % NAME_CHUNK + name.length > NAME_CHUNK) {
+            chunk++;
+            nameEnd = (long) chunk * NAME_CHUNK;
+        }
+        if (chunk == names.length) {
+            ByteBuffer[] grown = Arrays.copyOf(names, chunk + 1);
+            grown[chunk] = ByteBuffer.allocateDirect(NAME_CHUNK);
+            names = grown;
+        }
+        ByteBuffer buffer = names[chunk];
+        int from = (int) (nameEnd % NAME_CHUNK);
+        for (int i = 0; i < name.length; i++) {
+            buffer.put(from + i, name[i]);
+        }
+        long address = nameEnd;
+        nameEnd += name.length;
+        return address;
+    }
+
+    private short typeIndex(String type) {
+        String[] known = types;
+        for (int i = 0; i < known.length; i++) {
+            if (known[i].equals(type)) {
+                return (short) i;
+            }
+        }
+        if (known.length == Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many product types");
+        }
+        String[] grown = Arrays.copyOf(known, known.length + 1);
+        grown[known.length] = type;
+        types = grown;
+        return (short) known.length;
+    }
+
+    private ByteBuffer record(int slot) {
+        return records[slot / RECORDS_PER_CHUNK];
+    }
+
+    private static int offset(int slot) {
+        return (slot % RECORDS_PER_CHUNK) * RECORD;
+    }
+}
@@ -16,17 +16,12 @@
  */
 package pm.data;
 
-import static java.math.RoundingMode.HALF_UP;
-
-import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.ResourceBundle;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Stream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 /**
  *
@@ -36,30 +31,63 @@ public abstract class Product implements Rateable<Product>, Comparable<Product>
 
 
     public static final BigDecimal DISCOUNT_RATE = BigDecimal.valueOf(0.1);
-    private static int contador = loadCurrentId();
+    static final int DISCOUNT_PERCENT = DISCOUNT_RATE.movePointRight(2).intValueExact();
+    static final IdAllocator ids = new IdAllocator();
     private int id;;
     private String type;
     private String name;
-    private BigDecimal price;
+    private long price;
     private Rating rating;
-    private Set<Review> reviews = new TreeSet<>();
+    private ReviewStore reviews = ReviewStore.EMPTY;
+    private final int[] ratingCounts = new int[Rating.values().length];
+    private long ratingTotal;
+    private int ratingCount;
+    private volatile long version;
+    private OffHeapCatalog records;
+    private int slot;
 
     Product(String type, String name, BigDecimal price) {
         this(type, name, price, Rating.NOT_RATED);
     }
 
     Product(String type, String name, BigDecimal price, Rating rating) {
-        contador++;
-        this.id = contador;
+        this(nextId(), type, name, price, rating);
+    }
+
+    Product(int id, String type, String name, BigDecimal price, Rating rating) {
+        this.id = id;
         this.type = type;
         this.name = name;
-        this.price = price;
+        this.price = Money.minor(price);
+        this.rating = rating;
+    }
+
+    /**
+     * Flyweight reading the fields that never change from a record of the
+     * off-heap catalog.
+     */
+    Product(OffHeapCatalog records, int slot, Rating rating) {
+        this.id = records.id(slot);
+        this.records = records;
+        this.slot = slot;
         this.rating = rating;
     }
 
-    Product(String type, String name, BigDecimal price, Rating rating, Set<Review> reviews) {
+    Product(String type, String name, BigDecimal price, Rating rating, Collection<Review> reviews) {
         this(type, name, price, rating);
-        this.reviews = reviews;
+        useReviews(reviews);
+    }
+
+    Product(int id, String type, String name, BigDecimal price, Rating rating, Collection<Review> reviews) {
+        this(id, type, name, price, rating);
+        useReviews(reviews);
+    }
+
+    private void useReviews(Collection<Review> reviews) {
+        this.reviews = reviews instanceof ReviewStore ? (ReviewStore) reviews : ReviewStore.of(reviews);
+        for (int i = 0; i < this.reviews.size(); i++) {
+            countRating(this.reviews.rating(i), 1);
+        }
     }
 
     public int getId() {
@@ -67,50 +95,173 @@ public abstract class Product implements Rateable<Product>, Comparable<Product>
     }
 
     public String getType() {
-        return type;
+        return records == null ? type : records.type(slot);
     }
 
+    /**
+     * Name of the product. A flyweight decodes it from its record the first
+     * time it is asked for and keeps it, as do its rerated copies, so
+     * lookups and sorts by name do not decode it again.
+     */
     public String getName() {
-        return name;
+        String decoded = name;
+        if (decoded == null && records != null) {
+            decoded = records.name(slot);
+            name = decoded;
+        }
+        return decoded;
     }
 
     public BigDecimal getPrice() {
-        return price;
+        return Money.decimal(getPriceMinor());
     }
 
     public BigDecimal getDiscount() {
-        return price.multiply(DISCOUNT_RATE).setScale(2, HALF_UP);
+        return Money.decimal(getDiscountMinor());
     }
 
-    public Set<Review> getReviews() {
+    long getPriceMinor() {
+        return records == null ? price : records.priceMinor(slot);
+    }
+
+    long getDiscountMinor() {
+        return getBaseDiscountMinor();
+    }
+
+    /**
+     * Discount of the product whenever its rule applies, whatever the time.
+     */
+    long getBaseDiscountMinor() {
+        return Money.percent(getPriceMinor(), DISCOUNT_PERCENT);
+    }
+
+    public List<Review> getReviews() {
+        return Collections.unmodifiableList(reviews);
+    }
+
+    ReviewStore reviewStore() {
         return reviews;
     }
-    public void setReview(Review review){
-        this.reviews.add(review);
+
+    /**
+     * Copy of the product with the review added and rated with the new
+     * average. The product itself does not change, so the review is only
+     * kept by using the returned copy.
+     */
+    public Product withReview(Review review) {
+        return withReviews(List.of(review));
     }
-    public String printReviews(){
-        String review = "";
-        for (Review r : reviews){
-            review += r + "\n";
+
+    /**
+     * Copy of the product with the reviews added and rated with the new
+     * average. The product itself does not change.
+     */
+    Product withReviews(List<Review> added) {
+        Product copy = applyRating(rating);
+        copy.reviews = reviews.plusAll(added);
+        for (Review review : added) {
+            copy.countRating(review.getRating(), 1);
         }
-        return review;
+        copy.rating = copy.getAverageRating();
+        return copy;
     }
 
+    /**
+     * Copy of the product with the reviews added in place of the review
+     * standing for "no reviews" that an empty report is loaded with. Live
+     * writes and the journal replay both add reviews through here, so a
+     * recovered product is rated as it was before the crash.
+     */
+    Product withReviews(List<Review> added, String noReview) {
+        return withoutReviews(r -> noReview.equals(r.getComments())).withReviews(added);
+    }
+
+    /**
+     * Copy of the product without the reviews matching the filter and rated
+     * with the new average, or the product itself when no review matches.
+     */
+    Product withoutReviews(Predicate<Review> filter) {
+        ReviewStore kept = reviews.minusIf(filter);
+        if (kept == reviews) {
+            return this;
+        }
+        Product copy = applyRating(rating);
+        copy.reviews = kept;
+        for (int i = 0; i < reviews.size(); i++) {
+            if (filter.test(reviews.get(i))) {
+                copy.countRating(reviews.rating(i), -1);
+            }
+        }
+        copy.rating = copy.getAverageRating();
+        return copy;
+    }
+
+    /**
+     * Average of the review ratings, kept up to date as reviews are added
+     * so it never has to walk the review set.
+     */
+    public Rating getAverageRating() {
+        return ratingCount == 0 ? Rateable.DEFAULT_RATING
+                : Rateable.convertInt((int) Math.round((double) ratingTotal / ratingCount));
+    }
+
+    /**
+     * Counter bumped every time the reviews or the rating of the product
+     * change, so rendered output can be cached per version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    OffHeapCatalog records() {
+        return records;
+    }
 
-    private static int loadCurrentId(){
-        int idMax = 0;
-        int numberProducts = 5;
+    int slot() {
+        return slot;
+    }
+
+    boolean isRecordOf(OffHeapCatalog catalog) {
+        return records != null && records == catalog;
+    }
 
-        try (Stream<Path> products= Files.list(Path.of(ResourceBundle.getBundle("pm.data.config").getString("data.folder")))){
-            
-            idMax = products.mapToInt(s -> Integer.valueOf(s.getFileName().toString().substring(7, 10))).max().orElse(100);
+    int[] getRatingCounts() {
+        return ratingCounts;
+    }
 
-        } catch (IOException e) {
-            System.out.println("Problem with the id's load");
+    /**
+     * Shares the reviews, and the name a flyweight of the same record has
+     * decoded, and copies the rating counters of {@code source},
+     * used when {@link #applyRating(Rating)} builds the rerated copy.
+     */
+    void inherit(Product source) {
+        if (records != null && records == source.records) {
+            this.name = source.name;
         }
-        return idMax - numberProducts;
+        this.reviews = source.reviews;
+        System.arraycopy(source.ratingCounts, 0, ratingCounts, 0, ratingCounts.length);
+        this.ratingTotal = source.ratingTotal;
+        this.ratingCount = source.ratingCount;
+        this.version = source.version + 1;
+    }
 
+    private void countRating(Rating rating, int delta) {
+        ratingCounts[rating.ordinal()] += delta;
+        ratingTotal += (long) delta * rating.ordinal();
+        ratingCount += delta;
+        version++;
     }
+    public String printReviews(){
+        StringBuilder review = new StringBuilder(64 * reviews.size());
+        reviews.forEachByRating(r -> review.append(r).append('\n'));
+        return review.toString();
+    }
+
+
+    private static int nextId() {
+        return ids.next();
+    }
+
     @Override
     public Rating getRating() {
         return rating;
@@ -119,7 +270,7 @@ public abstract class Product implements Rateable<Product>, Comparable<Product>
 
     @Override
     public String toString() {
-        return id + ", " + type + ", " + name + ", " + price + ", " + rating.getStars();
+        return id + ", " + getType() + ", " + getName() + ", " + getPrice() + ", " + rating.getStars();
         
     }
 
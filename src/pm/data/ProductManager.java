@@ -16,26 +16,35 @@
  */
 package pm.data;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
-import java.text.MessageFormat;
+import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import pm.data.ProductManagerMetrics.Operation;
 
 import javax.swing.event.SwingPropertyChangeSupport;
 
@@ -45,63 +54,106 @@ import javax.swing.event.SwingPropertyChangeSupport;
  */
 public class ProductManager {
 
-    private static Set<Product> products = new TreeSet<>();
-
-    private static final ProductManager pm = new ProductManager();
-
     private static final Logger logger = Logger.getLogger(ProductManager.class.getName());
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Lock writeLock = lock.writeLock();
-    private final Lock readLock = lock.readLock();
+    private static final CatalogStore store = new CatalogStore();
 
-
-    private ResourceFormatter formatter = new ResourceFormatter(Locale.UK);
-    private final ResourceBundle config = ResourceBundle.getBundle("pm.data.config");
-    private final MessageFormat reviewFormat = new MessageFormat(config.getString("review.data.format"));
-    private final MessageFormat productFormat = new MessageFormat(config.getString("product.data.format"));
     private static final Map<String, ResourceFormatter> formatters = Map.of("en_GB", new ResourceFormatter(Locale.UK),
             "en_US", new ResourceFormatter(Locale.US), "fr_FR", new ResourceFormatter(Locale.FRANCE), "es_ES", new ResourceFormatter(new Locale("es", "ES")),
             "de_GE", new ResourceFormatter(Locale.GERMANY));
 
-    private final Path dataFolder = Path.of(config.getString("data.folder"));
+    private static final ProductManager pm = new ProductManager();
+
+    private final ResourceFormatter formatter = new ResourceFormatter(Locale.UK);
+    private final ResourceBundle config = ResourceBundle.getBundle("pm.data.config");
+    private final ProductManagerMetrics metrics = new ProductManagerMetrics(
+            Boolean.parseBoolean(config.getString("metrics.enabled")), store::size);
 
+    // mutations share the read lock; loading and checkpointing take the write
+    // lock so they see the catalog and the journal at rest
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock writeLock = timed(lock.writeLock(), Operation.WRITE_LOCK_WAIT, Operation.WRITE_LOCK_HOLD);
+    private final Lock readLock = timed(lock.readLock(), Operation.READ_LOCK_WAIT, Operation.READ_LOCK_HOLD);
+
+    private final MessageTemplate reviewFormat = MessageTemplate.compile(config.getString("review.data.format"));
+    private final MessageTemplate productFormat = MessageTemplate.compile(config.getString("product.data.format"));
+
+    private final Path dataFolder = Path.of(System.getProperty("pm.data.folder", config.getString("data.folder")));
+    private final MessageTemplate productFileName = MessageTemplate.compile(config.getString("product.data.file"));
+    private final boolean lazyReviews = Boolean.parseBoolean(config.getString("reviews.lazy"));
+    private final String noReview = formatter.getText("no.review");
+    private final CatalogLoader loader = new CatalogLoader(dataFolder, config.getString("product.data.file"),
+            noReview, lazyReviews, metrics);
+    private CatalogJournal journal;
+    private final Set<Integer> pendingDeletes = ConcurrentHashMap.newKeySet();
+    private final SecondaryIndexes secondaryIndexes = new SecondaryIndexes();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private volatile OffHeapCatalog offHeap;
+    private final DiscountTotals discountTotals = new DiscountTotals(Clock.systemDefaultZone());
+    private final RenderCache renderCache = new RenderCache(Integer.parseInt(config.getString("render.cache.size")));
+    private final ReportWriter reports = new ReportWriter(Integer.parseInt(config.getString("report.queue.capacity")),
+            this::writeReport);
+
+    /**
+     * Renders products and reviews for one locale. The message patterns are
+     * compiled once per key and the number formats are kept per thread, so a
+     * formatter can be shared by every caller.
+     */
     private static class ResourceFormatter {
 
         private final Locale locale;
-        private final ResourceBundle resourcesPrint;
         private final ResourceBundle resourcesLoad;
+        private final Map<String, MessageTemplate> templatesPrint;
+        private final Map<String, MessageTemplate> templatesLoad;
         private final DateTimeFormatter dateFormatLoad;
         private final DateTimeFormatter dateFormatPrint;
-        private final NumberFormat moneyFormatLoad;
-        private final NumberFormat moneyFormatPrint;
+        private final ThreadLocal<NumberFormat> moneyFormatLoad;
+        private final ThreadLocal<NumberFormat> moneyFormatPrint;
 
         private ResourceFormatter(Locale locale) {
             this.locale = locale;
-            this.resourcesPrint = ResourceBundle.getBundle("pm.data.resources");
             this.resourcesLoad = ResourceBundle.getBundle("pm.data.resources", locale);
+            this.templatesPrint = compile(ResourceBundle.getBundle("pm.data.resources"));
+            this.templatesLoad = compile(resourcesLoad);
             this.dateFormatLoad = DateTimeFormatter.ofLocalizedDate(FormatStyle.MEDIUM).localizedBy(locale);
             this.dateFormatPrint = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-            this.moneyFormatLoad = NumberFormat.getCurrencyInstance(locale);
-            this.moneyFormatPrint = NumberFormat.getCurrencyInstance(Locale.ENGLISH);
+            this.moneyFormatLoad = ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(locale));
+            this.moneyFormatPrint = ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(Locale.ENGLISH));
 
         }
 
-        private String formatProductPrint(Product product) {
-            return MessageFormat.format(resourcesPrint.getString("product"), product.getName(), product.getType(),
-                    moneyFormatPrint.format(product.getPrice()), product.getRating().getStars(),
+        private static Map<String, MessageTemplate> compile(ResourceBundle resources) {
+            Map<String, MessageTemplate> templates = new HashMap<>();
+            for (String key : resources.keySet()) {
+                templates.put(key, MessageTemplate.compile(resources.getString(key)));
+            }
+            return templates;
+        }
+
+        private StringBuilder appendProductPrint(StringBuilder out, Product product) {
+            return templatesPrint.get("product").render(out, product.getName(), product.getType(),
+                    moneyFormatPrint.get().format(Money.units(product.getPriceMinor())), product.getRating().getStars(),
                     dateFormatPrint.format(product.getBestBefore()));
         }
 
         private String formatProductLoad(Product product) {
-            return MessageFormat.format(resourcesLoad.getString("product"), product.getName(), product.getType(),
-                    moneyFormatLoad.format(product.getPrice()), product.getRating().getStars(),
-                    dateFormatLoad.format(product.getBestBefore()), product.printReviews());
+            return appendProductLoad(new StringBuilder(128), product).toString();
+        }
+
+        private StringBuilder appendProductLoad(StringBuilder out, Product product) {
+            MessageTemplate template = templatesLoad.get("product");
+            return template.render(out, product.getName(), product.getType(),
+                    moneyFormatLoad.get().format(Money.units(product.getPriceMinor())), product.getRating().getStars(),
+                    dateFormatLoad.format(product.getBestBefore()),
+                    template.uses(5) ? product.printReviews() : "");
+        }
+
+        private StringBuilder appendReviewPrint(StringBuilder out, Review review) {
+            return templatesPrint.get("review").render(out, review.getRating().getStars(), review.getComments());
         }
 
-        private String formatReviewPrint(Review review) {
-            return MessageFormat.format(resourcesPrint.getString("review"), review.getRating().getStars(),
-                    review.getComments());
+        private String formatMoney(Money amount) {
+            return moneyFormatLoad.get().format(Money.units(amount.getMinor()));
         }
 
         private String getText(String key) {
@@ -111,7 +163,23 @@ public class ProductManager {
     }
 
     private ProductManager(){
+        store.addListener(renderCache);
+        store.addListener(secondaryIndexes);
+        store.addListener(discountTotals);
+        store.addListener(searchIndex);
+        Runtime.getRuntime().addShutdownHook(new Thread(reports::close, "report-flush"));
+        if (metrics.isEnabled()) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                        new ObjectName("pm.data:type=ProductManager"));
+            } catch (JMException ex) {
+                logger.log(Level.WARNING, "Error registering the metrics MBean {0}", ex.getMessage());
+            }
+        }
+    }
 
+    private Lock timed(Lock lock, Operation wait, Operation hold) {
+        return metrics.isEnabled() ? new TimedLock(lock, metrics, wait, hold) : lock;
     }
 
     public static ProductManager getInstance() {
@@ -120,73 +188,162 @@ public class ProductManager {
     }
 
     public Set<Product> getProducts() {
-        return products;
+        return store.snapshot();
+    }
+
+    /**
+     * Consistent, immutable version of the catalog. Taking it costs nothing
+     * and iterating it does not hold up writers.
+     */
+    public CatalogView snapshot() {
+        return store.snapshot();
     }
 
     public String showProduct(Product product) {
 
-        return formatter.formatProductLoad(product);
+        return showProduct(product, formatter);
     }
     public String showProduct(Product product, String lang) {
 
-        return formatters.getOrDefault(lang, formatter).formatProductLoad(product);
+        return showProduct(product, formatters.getOrDefault(lang, formatter));
+    }
+
+    private String showProduct(Product product, ResourceFormatter localFormatter) {
+        return renderCache.get(product, localFormatter.locale.toLanguageTag(),
+                () -> localFormatter.formatProductLoad(product));
+    }
+
+    public long getRenderCacheHits() {
+        return renderCache.getHits();
+    }
+
+    public long getRenderCacheMisses() {
+        return renderCache.getMisses();
     }
 
     public static Set<String> getSupportedLocales() {
         return formatters.keySet();
     }
 
+    /**
+     * @throws IllegalArgumentException when the price has more than two
+     * decimals, which the catalog would otherwise have to round away
+     */
     public Product createProductFood(String type, String name, BigDecimal price, Rating rating,
             LocalDate bestBefore) {
-        Product product = null;
+        return createProduct(new Food(type, name, price, rating, bestBefore));
+    }
+
+    /**
+     * @throws IllegalArgumentException when the price has more than two
+     * decimals
+     */
+    public Product createProductDrink(String type, String name, BigDecimal price, Rating rating) {
+        return createProduct(new Drink(type, name, price, rating));
+    }
+
+    private Product createProduct(Product product) {
         try {
-            writeLock.lock();
-            product = new Food(type, name, price, rating, bestBefore);
-            products.add(product);
+            readLock.lock();
+            product = addProduct(product);
         } catch (Exception ex) {
             logger.log(Level.INFO, "Error adding products {0}", ex.getMessage());
+            product = null;
         } finally {
-            writeLock.unlock();
+            readLock.unlock();
         }
 
         return product;
     }
 
-    public Product createProductDrink(String type, String name, BigDecimal price, Rating rating) {
-        Product product = null;
+    /**
+     * Journals the new product and publishes it, under its stripe so no
+     * review of it can reach the journal first.
+     */
+    private Product addProduct(Product product) {
+        Product adopted = adopt(product);
+        Lock stripe = store.stripe(adopted.getId());
+        stripe.lock();
         try {
-            writeLock.lock();
-            product = new Drink(type, name, price, rating);
-            products.add(product);
-        } catch (Exception ex) {
-            logger.log(Level.INFO, "Error adding products {0}", ex.getMessage());
+            writeJournal(journal -> journal.create(adopted));
+            store.put(adopted);
         } finally {
-            writeLock.unlock();
+            stripe.unlock();
         }
+        return adopted;
+    }
 
-        return product;
+    /**
+     * Moves the product into the off-heap records when that mode is on.
+     */
+    private Product adopt(Product product) {
+        OffHeapCatalog records = offHeap;
+        return records == null ? product : records.adopt(product);
     }
 
     public Product findProduct(int id) throws ProductManagerException {
+        long start = metrics.start();
         try {
-            readLock.lock();
-            return products.stream().filter(p -> p.getId() == id).findFirst()
-                    .orElseThrow(() -> new ProductManagerException("Product with id " + id + " not found"));
+            Product product = store.get(id);
+            if (product == null) {
+                throw new ProductManagerException("Product with id " + id + " not found");
+            }
+            return product;
         } finally {
-            readLock.unlock();
+            metrics.record(Operation.FIND_PRODUCT, start);
         }
-
     }
 
     public Product findProduct(String name) throws ProductManagerException {
+        long start = metrics.start();
         try {
-            readLock.lock();
-            return products.stream().filter(p -> p.getName().equals(name)).findFirst()
-                    .orElseThrow(() -> new ProductManagerException("Product with name " + name + " not found"));
+            Product product = store.get(name);
+            if (product == null) {
+                throw new ProductManagerException("Product with name " + name + " not found");
+            }
+            return product;
         } finally {
-            readLock.unlock();
+            metrics.record(Operation.FIND_PRODUCT, start);
         }
+    }
 
+    /**
+     * Products whose price lies between {@code min} and {@code max} inclusive,
+     * cheapest first.
+     */
+    public List<Product> findProductsByPrice(BigDecimal min, BigDecimal max) {
+        return secondaryIndexes.byPrice(min, max);
+    }
+
+    /**
+     * Products rated between {@code min} and {@code max} inclusive, lowest
+     * rating first.
+     */
+    public List<Product> findProductsByRating(Rating min, Rating max) {
+        return secondaryIndexes.byRating(min, max);
+    }
+
+    public List<Product> findProductsByType(String type) {
+        return secondaryIndexes.byType(type);
+    }
+
+    /**
+     * Food products best before a date between {@code from} and {@code to}
+     * inclusive, soonest first.
+     */
+    public List<Product> findProductsBestBefore(LocalDate from, LocalDate to) {
+        return secondaryIndexes.byBestBefore(from, to);
+    }
+
+    /**
+     * Products whose name or reviews contain the words of the query, whole,
+     * as a prefix or with a typo, best matches first.
+     */
+    public List<SearchHit> searchProducts(String query, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Negative offset or limit");
+        }
+        return searchIndex.search(query, offset, limit);
     }
 
     public Product reviewProduct(int id, int stars, String comments) {
@@ -207,16 +364,201 @@ public class ProductManager {
         return null;
     }
 
+    /**
+     * @throws UncheckedIOException when the review cannot be journaled, in
+     * which case it is not added
+     */
     public Product reviewProduct(Product product, Rating rating, String comments) {
+        if (rating == null || comments == null) {
+            throw new IllegalArgumentException("Incomplete review");
+        }
+        Review review = new Review(rating, comments);
+        long start = metrics.start();
+        Product rated;
+        try {
+            readLock.lock();
+            rated = applyReview(product.getId(), review);
+        } finally {
+            readLock.unlock();
+            metrics.record(Operation.REVIEW_PRODUCT, start);
+        }
+        if (rated == null) {
+            logger.log(Level.INFO, "Product with id {0} not found", product.getId());
+        }
+        return rated;
+    }
 
-        Set<Review> reviews = product.getReviews();
-        reviews.add(new Review(rating, comments));
+    /**
+     * Applies a burst of reviews. Entries are grouped by product, each group
+     * is applied under one acquisition of the product's lock, and every
+     * touched product is rerated, journaled and written out once. Entries
+     * that cannot be applied are reported in the result without stopping
+     * the rest of the batch.
+     */
+    public BatchResult reviewProducts(List<ReviewEntry> entries) {
+        return reviewProducts(entries, readLock);
+    }
+
+    private BatchResult reviewProducts(List<ReviewEntry> entries, Lock lock) {
+        BatchResult result = new BatchResult();
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ReviewEntry entry = entries.get(i);
+            if (entry == null || entry.getRating() == null || entry.getComments() == null) {
+                result.failed(i, "Incomplete review " + entry);
+            } else {
+                groups.computeIfAbsent(entry.getProductId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        try {
+            lock.lock();
+            groups.forEach((id, positions) -> reviewGroup(id, positions, entries, result));
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
 
-        product = product.applyRating(Rateable.convertInt(
-                (int) Math.round(reviews.stream().mapToInt(r -> r.getRating().ordinal()).average().orElse(0))));
+    /**
+     * Imports a feed of products, one per line in the product data format.
+     * Lines are parsed in parallel and added in batches, each taking the
+     * write lock once, so the rest of the catalog sees a batch at a time.
+     */
+    public ImportReport importProducts(Path feed) throws IOException {
+        return importFeed(feed, this::productOf, this::insertProducts);
+    }
 
-        products.add(product);
-        return product;
+    /**
+     * Imports a feed of reviews, one per line made of the product id, a
+     * comma and the review in the review data format. Reviews of a product
+     * within a batch are applied together as by {@link #reviewProducts}.
+     */
+    public ImportReport importReviews(Path feed) throws IOException {
+        return importFeed(feed, this::reviewEntryOf, entries -> reviewProducts(entries, writeLock));
+    }
+
+    private <T> ImportReport importFeed(Path feed, FeedImporter.Parser<T> parser, FeedImporter.Sink<T> sink)
+            throws IOException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        FeedImporter<T> importer = new FeedImporter<>(parser, batch -> {
+            long start = metrics.start();
+            try {
+                return sink.insert(batch);
+            } finally {
+                metrics.record(Operation.IMPORT_BATCH, start);
+            }
+        }, ForkJoinPool.commonPool(), Integer.parseInt(config.getString("import.chunk.lines")), 2 * parallelism,
+                Integer.parseInt(config.getString("import.max.failures")));
+        ImportReport report;
+        try (BufferedReader in = Files.newBufferedReader(feed, StandardCharsets.UTF_8)) {
+            report = importer.run(in);
+        }
+        metrics.read(Files.size(feed));
+        logger.log(Level.INFO, "Imported {0}: {1}", new Object[] { feed.getFileName(), report });
+        return report;
+    }
+
+    /**
+     * Adds a batch of products and journals them with one write before any
+     * is published, then schedules their reports. Entries that cannot be
+     * added are reported at their position in the batch without stopping
+     * the rest.
+     */
+    private BatchResult insertProducts(List<Product> products) {
+        BatchResult result = new BatchResult();
+        List<Product> added = new ArrayList<>(products.size());
+        List<Integer> positions = new ArrayList<>(products.size());
+        try {
+            writeLock.lock();
+            for (int i = 0; i < products.size(); i++) {
+                try {
+                    added.add(adopt(products.get(i)));
+                    positions.add(i);
+                } catch (RuntimeException ex) {
+                    result.failed(i, "Cannot add product " + products.get(i) + ": " + ex.getMessage());
+                }
+            }
+            if (added.isEmpty()) {
+                return result;
+            }
+            try {
+                writeJournal(journal -> journal.create(added));
+            } catch (UncheckedIOException ex) {
+                positions.forEach(i -> result.failed(i, "Cannot journal product " + products.get(i)));
+                return result;
+            }
+            for (Product product : added) {
+                publish(product);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        result.applied(added.size());
+        for (Product product : added) {
+            reports.markDirty(product.getId());
+        }
+        return result;
+    }
+
+    private void publish(Product product) {
+        Lock stripe = store.stripe(product.getId());
+        stripe.lock();
+        try {
+            store.put(product);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void reviewGroup(int id, List<Integer> positions, List<ReviewEntry> entries, BatchResult result) {
+        Product rated;
+        List<Review> added = new ArrayList<>(positions.size());
+        Lock stripe = store.stripe(id);
+        stripe.lock();
+        try {
+            Product product = store.get(id);
+            if (product == null) {
+                positions.forEach(i -> result.failed(i, "Product with id " + id + " not found"));
+                return;
+            }
+            for (int i : positions) {
+                ReviewEntry entry = entries.get(i);
+                added.add(new Review(entry.getRating(), entry.getComments()));
+            }
+            rated = product.withReviews(added, noReview);
+            try {
+                writeJournal(journal -> journal.review(id, added));
+            } catch (UncheckedIOException ex) {
+                positions.forEach(i -> result.failed(i, "Cannot journal the review of product " + id));
+                return;
+            }
+            store.put(rated);
+        } finally {
+            stripe.unlock();
+        }
+        result.applied(added.size());
+        reports.markDirty(rated.getId());
+    }
+
+    /**
+     * Adds the review to the current version of the product, or returns null
+     * when the product is gone.
+     */
+    private Product applyReview(int id, Review review) {
+        Lock stripe = store.stripe(id);
+        stripe.lock();
+        try {
+            Product current = store.get(id);
+            if (current == null) {
+                return null;
+            }
+            Product rated = current.withReviews(List.of(review), noReview);
+            writeJournal(journal -> journal.review(id, review));
+            store.put(rated);
+            return rated;
+        } finally {
+            stripe.unlock();
+        }
     }
 
     public void printProductReport(int id) {
@@ -224,65 +566,200 @@ public class ProductManager {
             printProductReport(findProduct(id));
         } catch (ProductManagerException ex) {
             logger.log(Level.INFO, ex.getMessage());
-        } catch (IOException ex) {
-            logger.log(Level.SEVERE, "Error printing product report", ex);
         }
     }
 
-    public void printProductReport(Product product) throws IOException {
-        Set<Review> reviews = product.getReviews();
-        String form = formatter.formatProductPrint(product);
+    /**
+     * Schedules the report of the product to be written in the background
+     * with its latest state.
+     */
+    public void printProductReport(Product product) {
+        reports.markDirty(product.getId());
+    }
 
-        Path productFile = dataFolder
-                .resolve(MessageFormat.format(config.getString("product.data.file"), product.getId()));
+    /**
+     * Waits until every scheduled product report is on disk.
+     */
+    public void flushReports() {
+        try {
+            reports.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            
-        try (BufferedWriter out = Files.newBufferedWriter(productFile, StandardOpenOption.CREATE);
-                Stream<String> data = Files.lines(productFile)) {
+    private void writeReport(int id) throws IOException {
+        Product product = store.get(id);
+        if (product != null) {
+            writeProductReport(product);
+        }
+    }
 
-                    StringBuilder sb = new StringBuilder();
+    private void writeProductReport(Product product) throws IOException {
+        long start = metrics.start();
+        ReviewStore reviews = product.reviewStore();
+        // the file is about to be replaced, so lazy comments cannot stay in it
+        reviews.pin();
+        StringBuilder sb = new StringBuilder(128 + 64 * reviews.size());
+        formatter.appendProductPrint(sb, product).append(System.lineSeparator());
+        if (reviews.isEmpty()) {
+            sb.append(noReview).append(System.lineSeparator());
+        } else {
+            reviews.forEachByRating(r -> formatter.appendReviewPrint(sb, r).append(System.lineSeparator()));
+        }
 
-                        sb.append((form) + System.lineSeparator());
+        byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = productFile(product.getId());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        metrics.written(data.length);
+        metrics.record(Operation.PRINT_PRODUCT_REPORT, start);
+    }
 
-                        if (reviews.isEmpty()) {
-                            sb.append(formatter.getText("no.review") + System.lineSeparator());
+    private Path productFile(int id) {
+        return dataFolder.resolve(productFileName.format(Integer.toString(id)));
+    }
 
-                        } else {
-                            sb.append(reviews.stream().map(r -> formatter.formatReviewPrint(r) + System.lineSeparator())
-                                    .collect(Collectors.joining()));
+    /**
+     * Writes a binary snapshot of the catalog, removes the reports of deleted
+     * products and empties the journal, whose records are now all part of
+     * the snapshot. The snapshot keeps the number of the last of those
+     * records, so a crash before the journal is emptied replays none of them.
+     */
+    public void checkpoint() {
+        try {
+            writeLock.lock();
+            Path snapshot = dataFolder.resolve(config.getString("snapshot.file"));
+            CatalogSnapshot.write(snapshot, store.snapshot(), journal == null ? 0 : journal.lsn());
+            metrics.written(Files.size(snapshot));
+            reports.flush();
+            for (Iterator<Integer> it = pendingDeletes.iterator(); it.hasNext();) {
+                Files.deleteIfExists(productFile(it.next()));
+                it.remove();
+            }
+            if (journal != null) {
+                journal.reset();
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error writing the checkpoint", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-                        }
-                        System.out.println(sb.toString());
-                        out.write(sb.toString());
-                        out.flush();
+    /**
+     * Writes the whole catalog with its reviews to one file, optionally gzip
+     * compressed, and returns the size of the file. The export walks a
+     * version of the catalog whose products and reviews never change, so it
+     * needs no lock and writers are not held up meanwhile.
+     */
+    public long exportCatalog(Path file, ExportFormat format, boolean compress) throws IOException {
+        long start = metrics.start();
+        try {
+            long size = CatalogExport.write(file, store.snapshot(), format, compress);
+            metrics.written(size);
+            return size;
+        } finally {
+            metrics.record(Operation.EXPORT_CATALOG, start);
+        }
+    }
 
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            printProducts(filter, sorter, languageTag, out);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error printing products", ex);
         }
+    }
 
+    /**
+     * Writes the matching products in order to {@code out} line by line, so
+     * nothing but the product references is held in memory.
+     */
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag, Writer out)
+            throws IOException {
+        ResourceFormatter localFormatter = formatters.getOrDefault(languageTag, formatter);
+        List<Product> selected = new ArrayList<>();
+        for (Product product : store.snapshot()) {
+            if (filter.test(product)) {
+                selected.add(product);
+            }
+        }
+        selected.sort(sorter);
+        writeProducts(selected, 0, localFormatter, out);
     }
 
-    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag) {
+    /**
+     * Writes one page of the matching products, the {@code limit} products
+     * following the first {@code offset} in {@code sorter} order. Only
+     * {@code offset + limit} products are ever kept, in a bounded heap, so a
+     * page costs O(n log k) instead of a full sort.
+     */
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, String languageTag, int offset,
+            int limit, Writer out) throws IOException {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Negative offset or limit");
+        }
+        ResourceFormatter localFormatter = formatters.getOrDefault(languageTag, formatter);
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        writeProducts(selectTop(store.snapshot(), filter, sorter, k), offset, localFormatter, out);
+    }
 
-        formatter = formatters.getOrDefault(languageTag, formatter);
-        StringBuilder txt = new StringBuilder();
-        products.stream().filter(filter).sorted(sorter).forEach(p -> txt.append(formatter.formatProductLoad(p)).append("\n"));
+    private static List<Product> selectTop(Iterable<Product> products, Predicate<Product> filter,
+            Comparator<Product> sorter, int k) {
+        if (k == 0) {
+            return List.of();
+        }
+        PriorityQueue<Product> heap = new PriorityQueue<>(Math.min(k, 1024) + 1, sorter.reversed());
+        for (Product product : products) {
+            if (!filter.test(product)) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.add(product);
+            } else if (sorter.compare(product, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(product);
+            }
+        }
+        List<Product> top = new ArrayList<>(heap);
+        top.sort(sorter);
+        return top;
+    }
 
-        System.out.println(txt);
+    private void writeProducts(List<Product> products, int from, ResourceFormatter localFormatter, Writer out)
+            throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        for (int i = from; i < products.size(); i++) {
+            line.setLength(0);
+            localFormatter.appendProductLoad(line, products.get(i)).append('\n');
+            out.append(line);
+        }
+        out.flush();
     }
 
     public void printReview(int id, Review review) {
         try {
             Product product = findProduct(id);
-            Set<Review> reviews = product.getReviews();
-            
-            reviews.removeIf(s -> formatter.getText("no.review").equals(s.getComments()));
-            
-
-            if (!reviews.contains(review)){
-                product.setReview(review);
-                products.remove(product);
-                products.add(product);
+            Lock stripe = store.stripe(id);
+            readLock.lock();
+            stripe.lock();
+            try {
+                product = store.get(id);
+                if (product != null && !product.getReviews().contains(review)) {
+                    applyReview(id, review);
+                    reports.markDirty(id);
+                }
+            } finally {
+                stripe.unlock();
+                readLock.unlock();
             }
-
         } catch (ProductManagerException ex) {
             logger.log(Level.INFO, "The product for which you want to find the review is not found {0}", ex.getMessage());
         }
@@ -298,67 +775,131 @@ public class ProductManager {
                 Logger.getLogger(ProductManager.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        try (Stream<Path> data = Files.list(pm.dataFolder)) {
-
-            products = data.map(pm::loadProductCsv).filter(Objects::nonNull)
-                    .collect(Collectors.toSet());
+        long start = pm.metrics.start();
+        try {
+            pm.writeLock.lock();
+            Product.ids.open(path.resolve(pm.config.getString("id.file")),
+                    Integer.parseInt(pm.config.getString("id.block.size")));
+            CatalogSnapshot.Image image = pm.loadCatalog();
+            List<Product> loaded = image == null ? pm.loader.loadAll() : image.products;
+            if (Boolean.parseBoolean(pm.config.getString("catalog.offheap"))) {
+                pm.offHeap = new OffHeapCatalog();
+                loaded = pm.offHeap.adoptAll(loaded);
+            }
+            store.load(loaded);
+            Product.ids.advanceTo(store.lastId());
+            pm.openJournal(image == null ? 0 : image.lsn);
+            if (image == null) {
+                // the reports are written behind, so only a snapshot tells
+                // which journal records the loaded catalog holds
+                pm.checkpoint();
+            }
         } catch (IOException ex) {
             logger.log(Level.WARNING, "Error loading all data {0}", ex.getMessage());
             ex.printStackTrace();
+        } finally {
+            pm.writeLock.unlock();
+            pm.metrics.record(Operation.LOAD_ALL_DATA, start);
         }
     }
 
-    public Product loadProductCsv(Path file) {
-
-        Product product = null;
-
-        try (Stream<String> data = Files.lines(file)) {
-
-            String[] newProduct = data.findFirst().orElseThrow().split(",");
-
-            String name = newProduct[0].substring(6);
-            String type = newProduct[1].substring(7);
-
-            BigDecimal price = BigDecimal.valueOf(Double.parseDouble(newProduct[2].substring(9)));
-            Rating rating = Rateable.convertString(newProduct[3].substring(9));
-            Set<Review> reviewsLoad = Files.readAllLines(file).stream().skip(1).map((String r) -> {
-                String[] a = r.split("\t");
-                if (a.length == 2) {
-      
-                    return new Review(Rateable.convertString(a[0].substring(8)), a[1]);
-                } else {
-                    return new Review(Rateable.DEFAULT_RATING, formatter.getText("no.review"));
-                }
-            }).collect(Collectors.toSet());
-            if (type.equals("Drink")) {
-                product = new Drink(type, name, price, rating, reviewsLoad);
-            } else if (type.equals("Food")) {
-
-                LocalDate bestBefore = LocalDate.parse(newProduct[4].substring(14));
-                product = new Food(type, name, price, rating, bestBefore, reviewsLoad);
+    /**
+     * Reads the snapshot, or returns null when there is none or it cannot be
+     * read and the product reports have to be loaded instead.
+     */
+    private CatalogSnapshot.Image loadCatalog() throws IOException {
+        Path snapshot = dataFolder.resolve(config.getString("snapshot.file"));
+        if (Files.notExists(snapshot)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        CatalogSnapshot.Image image;
+        try {
+            image = CatalogSnapshot.read(snapshot, lazyReviews);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Unreadable snapshot, loading the product reports and the whole journal"
+                    + " instead, reviews already in the reports may be applied twice", ex);
+            return null;
+        }
+        metrics.read(Files.size(snapshot));
+        logger.log(Level.INFO, "Loaded {0} products from the snapshot in {1} ms",
+                new Object[] { image.products.size(), (System.nanoTime() - start) / 1_000_000 });
+        return image;
+    }
 
+    /**
+     * Opens the journal and replays the records numbered after
+     * {@code covered}, the last one the loaded catalog holds.
+     */
+    private void openJournal(long covered) {
+        try {
+            if (journal == null) {
+                journal = CatalogJournal.open(dataFolder.resolve(config.getString("journal.file")),
+                        CatalogJournal.SyncPolicy.valueOf(config.getString("journal.sync")),
+                        Integer.parseInt(config.getString("journal.group.size")),
+                        Long.parseLong(config.getString("journal.group.millis")), metrics);
             }
-
+            int records = journal.replay(new JournalReplay(store, noReview, this::adopt,
+                    pendingDeletes), covered);
+            logger.log(Level.INFO, "Replayed {0} journal records", records);
         } catch (IOException ex) {
-            logger.log(Level.WARNING, "Error loadind product", ex);
+            logger.log(Level.SEVERE, "Error opening the journal", ex);
         }
+    }
 
-        return product;
+    /**
+     * Writes records to the journal, when there is one, before the change
+     * they record is published. A failed write is thrown back so the change
+     * is dropped instead of being published without its record.
+     */
+    private void writeJournal(JournalWrite write) {
+        if (journal != null) {
+            try {
+                write.to(journal);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error writing to the journal", ex);
+                throw new UncheckedIOException(ex);
+            }
+        }
     }
 
-    public Set<Review> loadReviews(int id) {
-        return products.stream().filter(p -> p.getId() == id).map(Product::getReviews)
-                .flatMap(s -> s.stream()).collect(Collectors.toSet());
+    @FunctionalInterface
+    private interface JournalWrite {
+
+        void to(CatalogJournal journal) throws IOException;
+    }
+
+    public Product loadProductCsv(Path file) {
+        return loader.load(file);
+    }
+
+    public List<Review> loadReviews(int id) {
+        try {
+            return new ArrayList<>(findProduct(id).getReviews());
+        } catch (ProductManagerException ex) {
+            logger.log(Level.INFO, ex.getMessage());
+            return new ArrayList<>();
+        }
 
     }
 
     public String deleteProduct(int id) {
-        if (products.removeIf(s -> s.getId() == id)) {
-            try {
-                Files.delete(dataFolder.resolve(MessageFormat.format(config.getString("product.data.file"), id)));
-            } catch (IOException e) {
-                System.out.println("problem deleting product ");
+        Product removed;
+        Lock stripe = store.stripe(id);
+        readLock.lock();
+        stripe.lock();
+        try {
+            removed = store.get(id);
+            if (removed != null) {
+                writeJournal(journal -> journal.delete(id));
+                store.remove(id);
+                pendingDeletes.add(id);
             }
+        } finally {
+            stripe.unlock();
+            readLock.unlock();
+        }
+        if (removed != null) {
             return "Product with id " + id + " has been removed";
         } else {
             return "the product could not be removed";
@@ -378,9 +919,8 @@ public class ProductManager {
     public Review parseReview(String text) {
         Review review = null;
         try {
-            Object[] values = reviewFormat.parse(text);
-            review = new Review(Rateable.convertInt(Integer.parseInt((String)values[0])), (String) values[1]);
-        } catch (ParseException | NumberFormatException ex) {
+            review = reviewOf(text);
+        } catch (ParseException | RuntimeException ex) {
             logger.log(Level.WARNING, "Error parsing review {0}", text);
         }
         return review;
@@ -388,37 +928,62 @@ public class ProductManager {
 
     public Product parseProduct(String text) {
         Product product = null;
-        Object[] values = null;
         try {
-            values = productFormat.parse(text);
-            if (values != null) {
-                String name = (String) values[0];
-                String type = values[1].toString();
-                BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[2]));
-                Rating rating = Rateable.convertString((String) values[3]);
-                if (type.equals("Drink")) {
-                    product = createProductDrink(type, name, price, rating);
-                } else if (type.equals("Food")) {
-                    LocalDate bestBefore = LocalDate.parse((String) values[4]);
-                    product = createProductFood(type, name, price, rating, bestBefore);
-                }
+            product = createProduct(productOf(text));
+            if (product != null) {
+                printProductReport(product);
             }
-            products.add(product);
-            printProductReport(product);
-
-        } catch (ParseException | IOException ex) {
-            Logger.getLogger(ProductManager.class.getName()).log(Level.SEVERE, "problema al dar formato", ex);
+        } catch (ParseException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Error parsing product {0}: {1}", new Object[] { text, ex.getMessage() });
         }
         return product;
     }
 
-    public Map<String, String> getDiscounts(String languageTag) {
-        formatter = formatters.getOrDefault(languageTag, formatter);
-        return products.stream()
-                .collect(Collectors.groupingBy(product -> product.getRating().getStars(),
-                        Collectors.collectingAndThen(
-                                Collectors.summingDouble(product -> product.getDiscount().doubleValue()),
-                                discount -> formatter.moneyFormatLoad.format(discount))));
+    private Review reviewOf(String text) throws ParseException {
+        String[] values = reviewFormat.parse(text);
+        return new Review(rating(values[0]), values[1]);
+    }
 
+    private ReviewEntry reviewEntryOf(String text) throws ParseException {
+        int comma = text.indexOf(',');
+        if (comma < 0) {
+            throw new ParseException("Missing product id: " + text, 0);
+        }
+        Review review = reviewOf(text.substring(comma + 1));
+        return new ReviewEntry(Integer.parseInt(text.substring(0, comma).trim()), review.getRating(),
+                review.getComments());
+    }
+
+    private Product productOf(String text) throws ParseException {
+        String[] values = productFormat.parse(text);
+        String name = values[0];
+        String type = values[1].trim();
+        BigDecimal price = new BigDecimal(values[2].trim());
+        Rating rating = rating(values[3]);
+        if (type.equals("Drink")) {
+            return new Drink(type, name, price, rating);
+        } else if (type.equals("Food")) {
+            return new Food(type, name, price, rating, LocalDate.parse(values[4].trim()));
+        }
+        throw new ParseException("Unknown product type " + type, 0);
+    }
+
+    /**
+     * Rating written either as a number of stars or as the stars themselves.
+     */
+    private static Rating rating(String value) {
+        String stars = value.trim();
+        if (!stars.isEmpty() && stars.chars().allMatch(Character::isDigit)) {
+            return Rateable.convertInt(Integer.parseInt(stars));
+        }
+        return Rateable.convertString(stars);
+    }
+
+    public Map<String, String> getDiscounts(String languageTag) {
+        ResourceFormatter localFormatter = formatters.getOrDefault(languageTag, formatter);
+        Map<String, String> discounts = new LinkedHashMap<>();
+        discountTotals.current().forEach((rating, discount)
+                -> discounts.put(rating.getStars(), localFormatter.formatMoney(discount)));
+        return discounts;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and latency histograms of the product manager. A disabled
+ * instance keeps no state: {@link #start()} returns 0 without reading the
+ * clock and every record call returns at once.
+ *
+ * @author Oscar
+ */
+final class ProductManagerMetrics implements ProductManagerMetricsMXBean {
+
+    enum Operation {
+        FIND_PRODUCT, REVIEW_PRODUCT, PRINT_PRODUCT_REPORT, LOAD_ALL_DATA, IMPORT_BATCH, EXPORT_CATALOG,
+        READ_LOCK_WAIT, READ_LOCK_HOLD, WRITE_LOCK_WAIT, WRITE_LOCK_HOLD
+    }
+
+    private final boolean enabled;
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final IntSupplier catalogSize;
+
+    ProductManagerMetrics(boolean enabled, IntSupplier catalogSize) {
+        this.enabled = enabled;
+        this.catalogSize = catalogSize;
+        if (enabled) {
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new LatencyHistogram());
+            }
+        }
+    }
+
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Operation operation, long start) {
+        if (enabled) {
+            histograms.get(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    void recordNanos(Operation operation, long nanos) {
+        if (enabled) {
+            histograms.get(operation).record(nanos);
+        }
+    }
+
+    void read(long bytes) {
+        if (enabled) {
+            bytesRead.add(bytes);
+        }
+    }
+
+    void written(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> latencies = new LinkedHashMap<>();
+        histograms.forEach((operation, histogram) -> latencies.put(operation.name(), new LatencySnapshot(histogram)));
+        return latencies;
+    }
+
+    @Override
+    public int getCatalogSize() {
+        return catalogSize.getAsInt();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        bytesRead.reset();
+        bytesWritten.reset();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.Map;
+
+/**
+ * Management interface of the product manager metrics, registered as
+ * {@code pm.data:type=ProductManager}.
+ *
+ * @author Oscar
+ */
+public interface ProductManagerMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * Latencies per operation, lock waits and lock holds included, keyed by
+     * operation name.
+     */
+    Map<String, LatencySnapshot> getLatencies();
+
+    int getCatalogSize();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    void reset();
+}
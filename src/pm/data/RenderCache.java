@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of rendered products keyed by product id, locale and product
+ * version. The best before date of a drink is the current day and discounts
+ * depend on the time, so renders also remember the date and the discount
+ * they were made with and are made again once either changes. The cache is
+ * split in segments by id, each one a small LRU map, and drops the renders
+ * of a product as soon as the catalog reports it changed.
+ *
+ * @author Oscar
+ */
+final class RenderCache implements CatalogListener {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    RenderCache(int maxProducts) {
+        int perSegment = Math.max(maxProducts / SEGMENTS, 1);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    String get(Product product, String locale, Supplier<String> render) {
+        int id = product.getId();
+        long version = product.getVersion();
+        LocalDate date = product.getBestBefore();
+        long discount = product.getDiscountMinor();
+        Segment segment = segment(id);
+        String text;
+        synchronized (segment) {
+            Renders renders = segment.get(id);
+            text = renders != null && renders.matches(version, date, discount) ? renders.byLocale.get(locale) : null;
+        }
+        if (text != null) {
+            hits.increment();
+            return text;
+        }
+        misses.increment();
+        text = render.get();
+        synchronized (segment) {
+            Renders renders = segment.get(id);
+            if (renders == null || renders.version < version
+                    || renders.version == version && !renders.matches(version, date, discount)) {
+                renders = new Renders(version, date, discount);
+                segment.put(id, renders);
+            }
+            if (renders.matches(version, date, discount)) {
+                renders.byLocale.put(locale, text);
+            }
+        }
+        return text;
+    }
+
+    void invalidate(int id) {
+        Segment segment = segment(id);
+        synchronized (segment) {
+            segment.remove(id);
+        }
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void productChanged(Product previous, Product current) {
+        invalidate(previous != null ? previous.getId() : current.getId());
+    }
+
+    @Override
+    public void catalogLoaded(CatalogView view) {
+        clear();
+    }
+
+    private Segment segment(int id) {
+        return segments[(id * 0x9E3779B9 >>> 16) & (SEGMENTS - 1)];
+    }
+
+    private static final class Renders {
+
+        private final long version;
+        private final LocalDate date;
+        private final long discount;
+        private final Map<String, String> byLocale = new HashMap<>(8);
+
+        private Renders(long version, LocalDate date, long discount) {
+            this.version = version;
+            this.date = date;
+            this.discount = discount;
+        }
+
+        private boolean matches(long version, LocalDate date, long discount) {
+            return this.version == version && this.date.equals(date) && this.discount == discount;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Integer, Renders> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Renders> eldest) {
+            return size() > capacity;
+        }
+    }
+}
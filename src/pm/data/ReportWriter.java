@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes product reports behind the callers' back. A product marked dirty
+ * is queued once until its report is written, so any number of changes in
+ * between cost a single rewrite of its latest state. When the queue is full
+ * callers wait for the writer to catch up.
+ *
+ * @author Oscar
+ */
+final class ReportWriter implements AutoCloseable {
+
+    /**
+     * Writes the report of the product with the given id as it is now.
+     */
+    @FunctionalInterface
+    interface Report {
+
+        void write(int id) throws IOException;
+    }
+
+    private static final Logger logger = Logger.getLogger(ReportWriter.class.getName());
+
+    private final Report report;
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Integer> queue;
+    private final Thread worker;
+    private int pending;
+
+    ReportWriter(int capacity, Report report) {
+        this.report = report;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.worker = new Thread(this::run, "report-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a rewrite of the report of the product, unless one is
+     * already waiting.
+     */
+    void markDirty(int id) {
+        if (!dirty.add(id)) {
+            return;
+        }
+        synchronized (this) {
+            pending++;
+        }
+        try {
+            queue.put(id);
+        } catch (InterruptedException ex) {
+            dirty.remove(id);
+            done();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until every report scheduled so far has been written.
+     */
+    synchronized void flush() throws InterruptedException {
+        while (pending > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Writes what is pending and stops the writer.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (true) {
+            int id;
+            try {
+                id = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            // cleared before writing so changes made meanwhile queue again
+            dirty.remove(id);
+            try {
+                report.write(id);
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.SEVERE, "Error writing the report of product " + id, ex);
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private synchronized void done() {
+        if (--pending == 0) {
+            notifyAll();
+        }
+    }
+}
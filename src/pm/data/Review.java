@@ -73,7 +73,14 @@ public class Review implements Comparable<Review>{
 
     @Override
     public int compareTo(Review other) {
-        return other.rating.ordinal() - this.rating.ordinal();
+        int order = other.rating.ordinal() - this.rating.ordinal();
+        if (order != 0 || comments == other.comments) {
+            return order;
+        }
+        if (comments == null || other.comments == null) {
+            return comments == null ? -1 : 1;
+        }
+        return comments.compareTo(other.comments);
     }
     
     
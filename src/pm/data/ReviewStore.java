@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Immutable reviews of one product in insertion order, held as a byte per
+ * rating and a comment reference per review in two arrays. Loaders pass the
+ * comments through a pool that lives as long as the load, so the same text
+ * read for many reviews is stored once. Comments of reviews added at runtime
+ * go through a bounded table of recent comments, which shares repeated text
+ * without keeping every comment ever seen. {@link Review} objects are only
+ * created when a caller asks for one.
+ * Adding reviews returns a new store. Stores appended one after the other
+ * share their arrays, each seeing only its own prefix: the store that ends
+ * where the arrays are filled appends in place, any other copies them. A
+ * store published once therefore never changes, and readers need no lock.
+ * A store can also be loaded lazily, with its ratings in memory and its
+ * comments read from disk on first use and only held softly, so the garbage
+ * collector can drop them and they are read again when next needed.
+ *
+ * @author Oscar
+ */
+final class ReviewStore extends AbstractList<Review> implements RandomAccess {
+
+    /**
+     * Reads the comments of the reviews of a lazy store, in order.
+     */
+    @FunctionalInterface
+    interface Source {
+
+        String[] comments() throws IOException;
+    }
+
+    private static final Rating[] RATINGS = Rating.values();
+    private static final String[] NO_COMMENTS = new String[0];
+    // recent comments by hash; a comment landing on a taken slot replaces it,
+    // which keeps the table at a fixed size
+    private static final String[] recent = new String[1 << 16];
+
+    static final ReviewStore EMPTY = new ReviewStore(new byte[0], NO_COMMENTS, 0);
+
+    private final byte[] ratingBytes;
+    private volatile String[] commentRefs;
+    private final int size;
+    // how far the shared arrays are filled, so only one store appends in place
+    private final AtomicInteger filled;
+    // shared by the stores appended from one another, whose reviews start alike
+    private final Object lineage;
+    // dropped once the comments are pinned, releasing what the source holds
+    private volatile Source source;
+    private volatile SoftReference<String[]> loaded;
+
+    private ReviewStore(byte[] ratings, String[] commentRefs, int size) {
+        this(ratings, commentRefs, size, new AtomicInteger(size), new Object(), null);
+    }
+
+    private ReviewStore(byte[] ratings, String[] commentRefs, int size, AtomicInteger filled, Object lineage,
+            Source source) {
+        this.ratingBytes = ratings;
+        this.commentRefs = commentRefs;
+        this.size = size;
+        this.filled = filled;
+        this.lineage = lineage;
+        this.source = source;
+    }
+
+    /**
+     * Store of the given reviews.
+     */
+    static ReviewStore of(Collection<Review> reviews) {
+        if (reviews.isEmpty()) {
+            return EMPTY;
+        }
+        int count = reviews.size();
+        byte[] ratings = new byte[count];
+        String[] refs = new String[count];
+        int i = 0;
+        for (Review review : reviews) {
+            ratings[i] = (byte) review.getRating().ordinal();
+            refs[i++] = interned(review.getComments());
+        }
+        return new ReviewStore(ratings, refs, count);
+    }
+
+    /**
+     * Store of the reviews with the given ratings, whose comments are read
+     * from the source when needed.
+     */
+    static ReviewStore lazy(byte[] ratings, Source source) {
+        if (ratings.length == 0) {
+            return EMPTY;
+        }
+        return new ReviewStore(ratings, null, ratings.length, new AtomicInteger(ratings.length), new Object(),
+                source);
+    }
+
+    /**
+     * Whether the comments are held in memory for good.
+     */
+    boolean isResident() {
+        return commentRefs != null;
+    }
+
+    /**
+     * Reads the comments of a lazy store and keeps them in memory from now
+     * on. The reviews seen by readers stay the same.
+     */
+    synchronized void pin() {
+        if (commentRefs == null) {
+            commentRefs = comments();
+            loaded = null;
+            source = null;
+        }
+    }
+
+    /**
+     * Instance of the comment kept in the pool of the current load.
+     */
+    static String pooled(Map<String, String> pool, String comment) {
+        String pooled = pool.putIfAbsent(comment, comment);
+        return pooled == null ? comment : pooled;
+    }
+
+    /**
+     * Instance of an equal comment stored recently, or the comment itself,
+     * which is then kept for the next ones. Slots are read and written
+     * without a lock: a lost update only costs a missed share.
+     */
+    static String interned(String comment) {
+        if (comment == null) {
+            return null;
+        }
+        int slot = (comment.hashCode() * 0x9E3779B9 >>> 16) & (recent.length - 1);
+        String shared = recent[slot];
+        if (comment.equals(shared)) {
+            return shared;
+        }
+        recent[slot] = comment;
+        return comment;
+    }
+
+    @Override
+    public Review get(int index) {
+        return new Review(rating(index), comment(index));
+    }
+
+    Rating rating(int index) {
+        checkIndex(index);
+        return RATINGS[ratingBytes[index]];
+    }
+
+    String comment(int index) {
+        checkIndex(index);
+        return comments()[index];
+    }
+
+    private String[] comments() {
+        String[] refs = commentRefs;
+        if (refs != null) {
+            return refs;
+        }
+        SoftReference<String[]> reference = loaded;
+        refs = reference == null ? null : reference.get();
+        if (refs == null) {
+            Source from = source;
+            if (from == null) {
+                return commentRefs;
+            }
+            try {
+                refs = from.comments();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            loaded = new SoftReference<>(refs);
+        }
+        return refs;
+    }
+
+    /**
+     * Walks the reviews from the highest rating to the lowest, the order of
+     * {@link Review#compareTo(Review)}, keeping insertion order within a
+     * rating.
+     */
+    void forEachByRating(Consumer<Review> action) {
+        String[] refs = size == 0 ? NO_COMMENTS : comments();
+        for (int r = RATINGS.length - 1; r >= 0; r--) {
+            for (int i = 0; i < size; i++) {
+                if (ratingBytes[i] == r) {
+                    action.accept(new Review(RATINGS[r], refs[i]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether this store holds the reviews of {@code older}, in the same
+     * order, followed by its own.
+     */
+    boolean continues(ReviewStore older) {
+        return older.lineage == lineage && older.size <= size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Store with the reviews of this one followed by the added ones.
+     */
+    ReviewStore plusAll(List<Review> added) {
+        int count = added.size();
+        if (count == 0) {
+            return this;
+        }
+        int total = size + count;
+        byte[] ratings = ratingBytes;
+        String[] refs = commentRefs;
+        AtomicInteger fill = filled;
+        // a store appended to twice branches, and the branches share no lineage
+        boolean last = fill.compareAndSet(size, total);
+        if (!last || refs == null || total > ratings.length) {
+            int capacity = Math.max(4, total + (total >> 1));
+            ratings = Arrays.copyOf(ratingBytes, capacity);
+            refs = Arrays.copyOf(size == 0 ? NO_COMMENTS : comments(), capacity);
+            fill = new AtomicInteger(total);
+        }
+        for (int i = 0; i < count; i++) {
+            Review review = added.get(i);
+            ratings[size + i] = (byte) review.getRating().ordinal();
+            refs[size + i] = interned(review.getComments());
+        }
+        return new ReviewStore(ratings, refs, total, fill, last ? lineage : new Object(), null);
+    }
+
+    /**
+     * Store without the reviews matching the filter, or this one when none
+     * does.
+     */
+    ReviewStore minusIf(Predicate<? super Review> filter) {
+        byte[] ratings = new byte[size];
+        String[] refs = new String[size];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Review review = get(i);
+            if (!filter.test(review)) {
+                ratings[kept] = ratingBytes[i];
+                refs[kept++] = review.getComments();
+            }
+        }
+        return kept == size ? this : kept == 0 ? EMPTY : new ReviewStore(ratings, refs, kept);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Review)) {
+            return false;
+        }
+        Review review = (Review) o;
+        byte rating = (byte) review.getRating().ordinal();
+        String comment = review.getComments();
+        String[] refs = null;
+        for (int i = 0; i < size; i++) {
+            if (ratingBytes[i] == rating) {
+                if (refs == null) {
+                    refs = comments();
+                }
+                if (refs[i] == comment || refs[i] != null && refs[i].equals(comment)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+    }
+}
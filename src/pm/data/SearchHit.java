@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+/**
+ * Product found by a text search, with the score it was ranked by.
+ *
+ * @author Oscar
+ */
+public final class SearchHit {
+
+    private final Product product;
+    private final double score;
+
+    SearchHit(Product product, double score) {
+        this.product = product;
+        this.score = score;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.3f %s", score, product.getName());
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Inverted index of the words in product names and review comments, kept
+ * in step with the store. Words are folded to lower case without accents.
+ * A query word matches indexed words equal to it, starting with it, or, when
+ * neither exists, within one or two edits of it, found through an index of
+ * the trigrams of every word. Hits are ranked by the weight of the matching
+ * words, name words counting more than comment words, scaled by how rare
+ * each word is.
+ * Writers of the catalog only queue the products they change, keeping the
+ * latest version of each, and a background thread indexes them. A search
+ * first indexes whatever is still queued, so it sees every write made
+ * before it started, and writers never tokenize nor wait for the index.
+ * Comments of reviews still on disk are indexed by the first search after
+ * they were left out, so loading the catalog does not read them. Queued
+ * and deferred products are indexed a slice at a time under the monitor.
+ *
+ * @author Oscar
+ */
+final class SearchIndex implements CatalogListener {
+
+    private static final int NAME_WEIGHT = 4;
+    private static final int COMMENT_WEIGHT = 1;
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.6;
+    private static final double FUZZY = 0.4;
+    private static final int MAX_EXPANSIONS = 64;
+    private static final int SLICE = 64;
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Words indexed for one product, so they can be taken out again.
+     */
+    private static final class Indexed {
+
+        private final String name;
+        private final ReviewStore reviews;
+        private final int reviewCount;
+        private final Map<String, Integer> words;
+
+        private Indexed(String name, ReviewStore reviews, int reviewCount, Map<String, Integer> words) {
+            this.name = name;
+            this.reviews = reviews;
+            this.reviewCount = reviewCount;
+            this.words = words;
+        }
+    }
+
+    /**
+     * Scores by product id in an open addressing table, so ranking a query
+     * does not box every matching id.
+     */
+    private static final class Scores {
+
+        private static final int FREE = 0;
+
+        private int[] ids = new int[64];
+        private double[] values = new double[64];
+        private int size;
+
+        void add(int id, double score) {
+            int mask = ids.length - 1;
+            int i = (id * 0x9E3779B9 >>> 7) & mask;
+            while (ids[i] != FREE && ids[i] != id) {
+                i = (i + 1) & mask;
+            }
+            if (ids[i] == FREE) {
+                ids[i] = id;
+                if (++size * 2 > ids.length) {
+                    values[i] = score;
+                    grow();
+                    return;
+                }
+            }
+            values[i] += score;
+        }
+
+        private void grow() {
+            int[] oldIds = ids;
+            double[] oldValues = values;
+            ids = new int[oldIds.length * 2];
+            values = new double[oldIds.length * 2];
+            size = 0;
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != FREE) {
+                    add(oldIds[i], oldValues[i]);
+                }
+            }
+        }
+    }
+
+    private final Map<String, Map<Integer, Integer>> postings = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> vocabulary = new ConcurrentSkipListSet<>();
+    private final Map<String, Set<String>> trigrams = new ConcurrentHashMap<>();
+    private final Map<Integer, Indexed> indexed = new ConcurrentHashMap<>();
+    private final Map<Integer, Product> products = new ConcurrentHashMap<>();
+    private final Set<Integer> deferred = ConcurrentHashMap.newKeySet();
+    // latest version of every changed product not indexed yet, or REMOVED
+    private final Map<Integer, Object> changes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+
+    SearchIndex() {
+        Thread worker = new Thread(this::run, "search-indexer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Ranked hits for the query, skipping the first {@code offset}.
+     */
+    List<SearchHit> search(String query, int offset, int limit) {
+        List<String> terms = words(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        if (!changes.isEmpty()) {
+            indexChanges();
+        }
+        if (!deferred.isEmpty()) {
+            indexDeferred();
+        }
+        double size = Math.max(products.size(), 1);
+        Scores scores = new Scores();
+        for (String term : terms) {
+            Map<String, Double> matches = matches(term);
+            for (Map.Entry<String, Double> match : matches.entrySet()) {
+                Map<Integer, Integer> posting = postings.get(match.getKey());
+                if (posting == null || posting.isEmpty()) {
+                    continue;
+                }
+                double weight = match.getValue() * Math.log(1 + size / posting.size());
+                posting.forEach((id, count) -> scores.add(id, weight * count));
+            }
+        }
+        Comparator<SearchHit> ranking = Comparator.comparingDouble(SearchHit::getScore)
+                .thenComparing(hit -> -hit.getProduct().getId());
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE - 1);
+        PriorityQueue<SearchHit> top = new PriorityQueue<>(Math.min(k, Math.max(scores.size, 1)) + 1, ranking);
+        double floor = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < scores.ids.length; i++) {
+            double score = scores.values[i];
+            if (scores.ids[i] == Scores.FREE || score < floor) {
+                continue;
+            }
+            Product product = products.get(scores.ids[i]);
+            if (product != null) {
+                top.add(new SearchHit(product, score));
+                if (top.size() > k) {
+                    top.poll();
+                    floor = top.peek().getScore();
+                }
+            }
+        }
+        List<SearchHit> ranked = new ArrayList<>(top);
+        ranked.sort(ranking.reversed());
+        return offset >= ranked.size() ? List.of() : ranked.subList(offset, ranked.size());
+    }
+
+    /**
+     * Queues the product for indexing. A product queued again before it is
+     * indexed only keeps its latest version.
+     */
+    @Override
+    public void productChanged(Product previous, Product current) {
+        int id = current == null ? previous.getId() : current.getId();
+        if (changes.put(id, current == null ? REMOVED : current) == null) {
+            queue.add(id);
+        }
+    }
+
+    @Override
+    public synchronized void catalogLoaded(CatalogView view) {
+        changes.clear();
+        queue.clear();
+        postings.clear();
+        vocabulary.clear();
+        trigrams.clear();
+        indexed.clear();
+        products.clear();
+        deferred.clear();
+        view.forEach(product -> index(product, false));
+    }
+
+    private void run() {
+        while (true) {
+            Integer id;
+            try {
+                id = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            synchronized (this) {
+                apply(id);
+                for (int i = 1; i < SLICE && (id = queue.poll()) != null; i++) {
+                    apply(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the queued products the worker has not got to yet, taking the
+     * monitor once per slice of products.
+     */
+    private void indexChanges() {
+        Iterator<Integer> pending = changes.keySet().iterator();
+        while (pending.hasNext()) {
+            synchronized (this) {
+                for (int i = 0; i < SLICE && pending.hasNext(); i++) {
+                    apply(pending.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the latest queued version of the product, if it is still
+     * queued. The caller holds the monitor, so versions are applied in the
+     * order they were queued.
+     */
+    private void apply(Integer id) {
+        Object change = changes.remove(id);
+        if (change == REMOVED) {
+            Indexed old = indexed.remove(id);
+            products.remove(id);
+            deferred.remove(id);
+            if (old != null) {
+                unindex(id, old.words);
+            }
+        } else if (change != null) {
+            index((Product) change, false);
+        }
+    }
+
+    /**
+     * Indexes the comments left out while their reviews were on disk,
+     * taking the monitor once per slice of products.
+     */
+    private void indexDeferred() {
+        Iterator<Integer> pending = deferred.iterator();
+        while (pending.hasNext()) {
+            synchronized (this) {
+                for (int i = 0; i < SLICE && pending.hasNext(); i++) {
+                    Integer id = pending.next();
+                    Product product = products.get(id);
+                    if (product != null) {
+                        index(product, true);
+                    } else {
+                        deferred.remove(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the product, leaving its comments for later when they are
+     * still on disk, unless {@code comments} is set.
+     */
+    private void index(Product product, boolean comments) {
+        int id = product.getId();
+        products.put(id, product);
+        String name = product.getName();
+        ReviewStore reviews = product.reviewStore();
+        int count = comments || reviews.isResident() ? reviews.size() : 0;
+        if (count < reviews.size()) {
+            deferred.add(id);
+        } else {
+            deferred.remove(id);
+        }
+        Indexed old = indexed.get(id);
+        Map<String, Integer> added = new HashMap<>();
+        Map<String, Integer> words;
+        int from;
+        if (old != null && reviews.continues(old.reviews) && old.name.equals(name)
+                && old.reviewCount <= count) {
+            words = old.words;
+            from = old.reviewCount;
+        } else {
+            if (old != null) {
+                unindex(id, old.words);
+            }
+            words = new HashMap<>();
+            from = 0;
+            for (String word : words(name)) {
+                added.merge(word, NAME_WEIGHT, Integer::sum);
+            }
+        }
+        for (int i = from; i < count; i++) {
+            for (String word : words(reviews.comment(i))) {
+                added.merge(word, COMMENT_WEIGHT, Integer::sum);
+            }
+        }
+        added.forEach((word, weight) -> {
+            words.merge(word, weight, Integer::sum);
+            postings.computeIfAbsent(word, w -> {
+                vocabulary.add(w);
+                for (String trigram : trigrams(w)) {
+                    trigrams.computeIfAbsent(trigram, t -> ConcurrentHashMap.newKeySet()).add(w);
+                }
+                return new ConcurrentHashMap<>();
+            }).merge(id, weight, Integer::sum);
+        });
+        indexed.put(id, new Indexed(name, reviews, count, words));
+    }
+
+    /**
+     * Takes the product out of the postings, and drops the words left
+     * without products from the vocabulary and the trigrams. Searches
+     * running meanwhile skip words with an empty posting.
+     */
+    private void unindex(int id, Map<String, Integer> words) {
+        for (String word : words.keySet()) {
+            Map<Integer, Integer> posting = postings.get(word);
+            if (posting == null) {
+                continue;
+            }
+            posting.remove(id);
+            if (posting.isEmpty()) {
+                postings.remove(word);
+                vocabulary.remove(word);
+                for (String trigram : trigrams(word)) {
+                    Set<String> candidates = trigrams.get(trigram);
+                    if (candidates != null) {
+                        candidates.remove(word);
+                        if (candidates.isEmpty()) {
+                            trigrams.remove(trigram);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexed words matching a query word, with the quality of the match.
+     */
+    private Map<String, Double> matches(String term) {
+        Map<String, Double> matches = new HashMap<>();
+        if (live(term)) {
+            matches.put(term, EXACT);
+        }
+        for (String word : vocabulary.subSet(term, false, term + Character.MAX_VALUE, false)) {
+            if (matches.size() >= MAX_EXPANSIONS) {
+                break;
+            }
+            if (live(word)) {
+                matches.put(word, PREFIX * term.length() / word.length());
+            }
+        }
+        if (matches.isEmpty() && term.length() >= 3) {
+            int allowed = term.length() <= 5 ? 1 : 2;
+            Map<String, Integer> shared = new HashMap<>();
+            for (String trigram : trigrams(term)) {
+                Set<String> candidates = trigrams.get(trigram);
+                if (candidates != null) {
+                    candidates.forEach(word -> shared.merge(word, 1, Integer::sum));
+                }
+            }
+            int needed = Math.max(1, term.length() - 3 * allowed);
+            int best = allowed;
+            for (Map.Entry<String, Integer> candidate : shared.entrySet()) {
+                String word = candidate.getKey();
+                if (candidate.getValue() >= needed && Math.abs(word.length() - term.length()) <= best
+                        && live(word)) {
+                    int distance = distance(term, word, best);
+                    if (distance < best) {
+                        matches.clear();
+                        best = distance;
+                    }
+                    if (distance == best) {
+                        matches.put(word, FUZZY / distance);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private boolean live(String word) {
+        Map<Integer, Integer> posting = postings.get(word);
+        return posting != null && !posting.isEmpty();
+    }
+
+    static List<String> words(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static List<String> trigrams(String word) {
+        String padded = "^" + word + "$";
+        if (padded.length() < 3) {
+            return Collections.singletonList(padded);
+        }
+        List<String> trigrams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Edit distance with transpositions, giving up once it exceeds
+     * {@code limit}.
+     */
+    private static int distance(String a, String b, int limit) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int best = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], previous2[j - 2] + 1);
+                }
+                best = Math.min(best, current[j]);
+            }
+            if (best > limit) {
+                return limit + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[b.length()];
+    }
+}
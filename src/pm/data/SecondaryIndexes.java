@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted indexes of the catalog on price, rating, type and best before
+ * date, kept in step with the store so range queries cost O(log n + k).
+ *
+ * @author Oscar
+ */
+final class SecondaryIndexes implements CatalogListener {
+
+    /**
+     * Index key ordering products by a value and then by id, so products
+     * sharing a value keep distinct entries.
+     */
+    private static final class Key<T extends Comparable<? super T>> implements Comparable<Key<T>> {
+
+        private final T value;
+        private final int id;
+
+        private Key(T value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key<T> other) {
+            int order = value.compareTo(other.value);
+            return order != 0 ? order : Integer.compare(id, other.id);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean equals(Object obj) {
+            return obj instanceof Key && compareTo((Key<T>) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * value.hashCode() + id;
+        }
+    }
+
+    private final ConcurrentSkipListMap<Key<Long>, Product> byPrice = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Key<LocalDate>, Product> byBestBefore = new ConcurrentSkipListMap<>();
+    private final Map<Rating, ConcurrentSkipListMap<Integer, Product>> byRating = new EnumMap<>(Rating.class);
+    private final Map<String, ConcurrentSkipListMap<Integer, Product>> byType = new ConcurrentHashMap<>();
+
+    SecondaryIndexes() {
+        for (Rating rating : Rating.values()) {
+            byRating.put(rating, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    List<Product> byPrice(BigDecimal min, BigDecimal max) {
+        long from = Money.minor(min, RoundingMode.CEILING);
+        long to = Money.minor(max, RoundingMode.FLOOR);
+        if (from > to) {
+            return List.of();
+        }
+        return new ArrayList<>(byPrice
+                .subMap(new Key<>(from, Integer.MIN_VALUE), true, new Key<>(to, Integer.MAX_VALUE), true).values());
+    }
+
+    List<Product> byRating(Rating min, Rating max) {
+        List<Product> found = new ArrayList<>();
+        for (int i = min.ordinal(); i <= max.ordinal(); i++) {
+            found.addAll(byRating.get(Rating.values()[i]).values());
+        }
+        return found;
+    }
+
+    List<Product> byType(String type) {
+        ConcurrentSkipListMap<Integer, Product> products = byType.get(type);
+        return products == null ? List.of() : new ArrayList<>(products.values());
+    }
+
+    List<Product> byBestBefore(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return List.of();
+        }
+        return new ArrayList<>(byBestBefore
+                .subMap(new Key<>(from, Integer.MIN_VALUE), true, new Key<>(to, Integer.MAX_VALUE), true).values());
+    }
+
+    @Override
+    public void productChanged(Product previous, Product current) {
+        if (previous != null) {
+            remove(previous);
+        }
+        if (current != null) {
+            add(current);
+        }
+    }
+
+    @Override
+    public void catalogLoaded(CatalogView view) {
+        byPrice.clear();
+        byBestBefore.clear();
+        byRating.values().forEach(Map::clear);
+        byType.clear();
+        view.forEach(this::add);
+    }
+
+    private void add(Product product) {
+        int id = product.getId();
+        byPrice.put(new Key<>(product.getPriceMinor(), id), product);
+        byRating.get(product.getRating()).put(id, product);
+        byType.computeIfAbsent(product.getType(), type -> new ConcurrentSkipListMap<>()).put(id, product);
+        if (product instanceof Food) {
+            byBestBefore.put(new Key<>(product.getBestBefore(), id), product);
+        }
+    }
+
+    private void remove(Product product) {
+        int id = product.getId();
+        byPrice.remove(new Key<>(product.getPriceMinor(), id));
+        byRating.get(product.getRating()).remove(id);
+        ConcurrentSkipListMap<Integer, Product> sameType = byType.get(product.getType());
+        if (sameType != null) {
+            sameType.remove(id);
+        }
+        if (product instanceof Food) {
+            byBestBefore.remove(new Key<>(product.getBestBefore(), id));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 Oscar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package pm.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Lock that reports how long threads wait for it and how long they hold
+ * it. Holds are timed from the outermost acquisition of a thread to its
+ * matching release, so reentrant use is counted once.
+ *
+ * @author Oscar
+ */
+final class TimedLock implements Lock {
+
+    private final Lock delegate;
+    private final ProductManagerMetrics metrics;
+    private final ProductManagerMetrics.Operation waitOperation;
+    private final ProductManagerMetrics.Operation holdOperation;
+    private final ThreadLocal<long[]> held = ThreadLocal.withInitial(() -> new long[2]);
+
+    TimedLock(Lock delegate, ProductManagerMetrics metrics, ProductManagerMetrics.Operation waitOperation,
+            ProductManagerMetrics.Operation holdOperation) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.waitOperation = waitOperation;
+        this.holdOperation = holdOperation;
+    }
+
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        delegate.lock();
+        acquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        delegate.lockInterruptibly();
+        acquired(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        long start = System.nanoTime();
+        if (delegate.tryLock()) {
+            acquired(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (delegate.tryLock(time, unit)) {
+            acquired(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        delegate.unlock();
+        long[] hold = held.get();
+        if (--hold[0] == 0) {
+            metrics.recordNanos(holdOperation, System.nanoTime() - hold[1]);
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return delegate.newCondition();
+    }
+
+    private void acquired(long start) {
+        long now = System.nanoTime();
+        metrics.recordNanos(waitOperation, now - start);
+        long[] hold = held.get();
+        if (hold[0]++ == 0) {
+            hold[1] = now;
+        }
+    }
+}